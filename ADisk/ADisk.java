@@ -10,9 +10,13 @@
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 //import writebackthread.WriteBackThread;
 
@@ -23,19 +27,79 @@ public class ADisk {
     public ActiveTransactionList aList;
     public WriteBackList wList;
     public LogStatus logStatus;
-    public CallbackTracker tracker;
-    public int[] status;
+    public SectorStatus status;
+    public SectorCache cache;
     
     //thread that watches the WriteBackList, writes data to disk when there are available transactions to be written
     public WriteBackThread wbThread;
+
+    //thread that appends committing transactions to the log in batches (group commit)
+    public CommitThread commitThread;
+    
+    //what the last recovery did (see getRecoveryTimeMs)
+    private long recoveryTimeMs;
+    private int recoveredTransactions;
+    private int replayedSectors;
     
     //locks and condition variables for ADisk
     private SimpleLock lock;
     
     //-------------------------------------------------------
-    // The size of the Redo log in sectors
+    // The default size of the Redo log in sectors. Callers
+    // number data sectors from REDO_LOG_SECTORS + 1 whatever
+    // size the log was formatted with (see homeSector).
+    //-------------------------------------------------------
+    public static final int REDO_LOG_SECTORS = Disk.ADISK_REDO_LOG_SECTORS;
+
+    //-------------------------------------------------------
+    // Largest log format() accepts; the rest of the disk
+    // holds data
+    //-------------------------------------------------------
+    public static final int MAX_REDO_LOG_SECTORS = Disk.NUM_OF_SECTORS / 2;
+
+    //-------------------------------------------------------
+    // Data sector numbers start at FIRST_SECTOR_NUM and stay
+    // below SECTOR_NUM_LIMIT whatever the log size: a smaller
+    // log leaves more data sectors (see getNSectors), numbered
+    // past Disk.NUM_OF_SECTORS. checkSector holds each ADisk
+    // to its own range within these; they also bound tables
+    // indexed by data sector number.
+    //-------------------------------------------------------
+    public static final int FIRST_SECTOR_NUM = REDO_LOG_SECTORS + 1;
+    public static final int SECTOR_NUM_LIMIT = REDO_LOG_SECTORS + Disk.NUM_OF_SECTORS;
+
+    //-------------------------------------------------------
+    // Number of DiskWorker threads serving the Disk
+    //-------------------------------------------------------
+    public static final int DISK_WORKERS = 4;
+
+    //-------------------------------------------------------
+    // If true, format() wipes the Disk (Disk.wipe) instead
+    // of writing zeros to every sector
+    //-------------------------------------------------------
+    public static final boolean LAZY_FORMAT = true;
+
+    //-------------------------------------------------------
+    // How much of the log recovery reads at a time
     //-------------------------------------------------------
-    public static final int REDO_LOG_SECTORS = 1024;
+    public static final int RECOVERY_READ_SECTORS = 256;
+
+    //-------------------------------------------------------
+    // Where the Disk keeps its sectors (Disk.BACKEND_*).
+    // Sector writes are not synced one by one: each log
+    // append ends with one Disk flush, and moving the tail
+    // flushes before and after writing sector 0 (see
+    // LogStatus).
+    //-------------------------------------------------------
+    public static final int DISK_BACKEND = Disk.BACKEND_FILE;
+
+    //-------------------------------------------------------
+    // Size and eviction policy (SectorCache.CLOCK or
+    // SectorCache.LRU) of the cache of home sectors that
+    // readSector checks before going to the Disk
+    //-------------------------------------------------------
+    public static final int CACHE_SECTORS = 1024;
+    public static final int CACHE_POLICY = SectorCache.CLOCK;
     
     //-------------------------------------------------------
     // Status indicators for sectors
@@ -44,6 +108,17 @@ public class ADisk {
     public static final int DONE_OK = 9234;
     public static final int DONE_ERROR = 22842;
 
+    //-------------------------------------------------------
+    // Tags for the Disk requests ADisk starts. Completion is
+    // tracked per request (see waitFor), so tags only help
+    // when debugging.
+    //-------------------------------------------------------
+    public static final int READ_TAG = 77020;
+    public static final int ASYNC_READ_TAG = 77021;
+    public static final int LOG_TAG = 77022;
+    public static final int DISK_WRITE_TAG = 77023;
+    public static final int FORMAT_TAG = 77024;
+
 
     //-------------------------------------------------------
     //
@@ -59,6 +134,20 @@ public class ADisk {
     //
     //-------------------------------------------------------
     public ADisk(boolean format) throws IllegalArgumentException, IOException {
+        this(format, REDO_LOG_SECTORS);
+    }
+
+    //-------------------------------------------------------
+    //
+    // Like ADisk(format), but a format lays out a redo log
+    // of logSectors sectors. The size is kept in the log
+    // header, so without format the log keeps the size it
+    // was formatted with and logSectors is ignored.
+    //
+    //-------------------------------------------------------
+    public ADisk(boolean format, int logSectors) throws IllegalArgumentException, IOException {
+        if (logSectors < 1 || logSectors > MAX_REDO_LOG_SECTORS)
+            throw new IllegalArgumentException("Bad log size " + logSectors);
         try {
         	//Initilize the lock 
         	lock = new SimpleLock();
@@ -70,25 +159,23 @@ public class ADisk {
         	wList = new WriteBackList();
 	        
         	//Initialize the log status class
-	        logStatus = new LogStatus(this);
+	        logStatus = new LogStatus(this, logSectors);
 	        
-	        //Create a variable to store the status of each sector
-	        //Ideally I would expect disk workers to take care of this
+	        //Keep the status of each sector
 	        //When adisk sends a write, it sets the sector to busy
-	        status = new int[Disk.NUM_OF_SECTORS];
-	        
-	        for(int i = 0 ; i < status.length ; i++)
-	        {
-	        	status[i] = DONE_OK;
-	        }
-
-	        //Once the callback tracker knows that the secor has been 
+	        //Once the disk calls back that the sector has been
 	        //written to, it changes it back to ready
-	        //In the mean time, writes and reads dont occur in the sector
-	        tracker = new CallbackTracker(status);
+	        //In the mean time, other writes dont occur in the sector
+	        status = new SectorStatus(Disk.NUM_OF_SECTORS);
 	        
-	        //Create a disk with the above tracker
-            disk = new Disk(tracker);
+	        //Create a disk that reports back to the sector status
+            disk = new Disk(status, DISK_WORKERS, DISK_BACKEND);
+
+            //Cache of home sectors, kept current by the writeback thread
+            cache = new SectorCache(CACHE_SECTORS, CACHE_POLICY);
+
+            commitThread = new CommitThread(this);
+            commitThread.start();
 
             //Create a thread to do the writeback to the disk
 	        wbThread = new WriteBackThread(this);
@@ -122,77 +209,102 @@ public class ADisk {
     // called by ADisk constructor, attempts to recover transactions from the log
     // after a failure
     //
-    // 0th sector of disk contains stored header and tail information
-    // log is located on sectors 1 to Disk.REDO_LOG_SECTORS
-    // The log stores Transactions contiguously. Each Transaction starts with a header
-    // sector which stores metadata about itself, followed by sectors of data 
-    // (there will be less than Common.MAX_WRITES_PER_TRANSACTION sectors of data),
-    // finally the transaction ends with a commit sector
+    // 0th sector of disk contains stored tail information
+    // log is located on sectors 1 to logStatus.getLogSectors()
+    // The log stores Transactions contiguously. Each Transaction starts with header
+    // sectors which store metadata about itself, followed by sectors of data
+    // (as many as fit in the log).
+    //
+    // The header carries the log sequence number of the transaction, one more
+    // than the one before it, and a checksum of the whole record. Starting from
+    // the tail, keep reading transactions while the next one has the expected
+    // sequence number and checksum; the first one that does not is where the
+    // head is. The numbering then jumps ahead (see below), so no record left
+    // past the head by the crash can ever be taken for a later one.
+    //
+    // Recovered transactions do not go through the writebacklist: only the
+    // last-committed image of each sector is written home, once, before the
+    // tail moves past the whole recovered log.
     //
     // -----------------------------------------------------------------------
     private void recover() {
     	try {
     		lock.lock();
     		System.out.println("Recovering from disk");
-    		// first read sector 0 and extract head and tail information
+    		long start = System.nanoTime();
+    		// first read sector 0 and extract tail information
     		int[] logPoints = logStatus.readLogHeader();
-    		byte[] b = new byte[Disk.SECTOR_SIZE];
-    		int head = logPoints[0];
     		int tail = logPoints[1];
-    		Queue<Integer> sectors = new LinkedList<Integer>();
+    		int seq = logPoints[3];
+    		int logSectors = logStatus.getLogSectors();
 
-    		for (int i = tail ; ; i++)
-    		{
-    			if(i> ADisk.REDO_LOG_SECTORS)
-    				i = 1;
+    		//The log, in order from the tail; read RECOVERY_READ_SECTORS
+    		//at a time as parsing gets to them
+    		byte[] region = new byte[logSectors * Disk.SECTOR_SIZE];
+    		int loaded = 0;
+    		int offset = 0; //from the tail, of the next record
+    		int nTransactions = 0;
+    		TreeMap<Integer, byte[]> finalVersions = new TreeMap<Integer, byte[]>();
 
-    			if(i == head)
+    		while (offset < logSectors)
+    		{
+    			if (loaded <= offset)
+    				loaded = readLog(region, tail, loaded, RECOVERY_READ_SECTORS);
+    			byte[] header = Arrays.copyOfRange(region, offset * Disk.SECTOR_SIZE,
+    					(offset + 1) * Disk.SECTOR_SIZE);
+    			int nSectors = Transaction.parseHeader(header);
+    			if (nSectors == -1 || Transaction.parseSeq(header) != seq
+    					|| offset + nSectors > logSectors)
     				break;
 
-    			this.read(i, b);
-    	    	//setup header
-    	    	// 0 - HEADERID 
-    	    	// 1 - number of sectors in this transaction (not including header and commit sectors)
-    	    	// 2-5 - transaction id
-    	    	// 6 - (6 + data.size()*4) - sector numbers contained in this transaction
-    			if (b[0] != (byte)222){
-    				System.out.println("Read sector was not a header");
-    				break;
+    			//The whole record: header and updates
+    			while (loaded < offset + nSectors)
+    				loaded = readLog(region, tail, loaded, RECOVERY_READ_SECTORS);
+    			Transaction t = Transaction.parseLogBytes(Arrays.copyOfRange(region,
+    					offset * Disk.SECTOR_SIZE, (offset + nSectors) * Disk.SECTOR_SIZE));
+    			if (t == null)
+    				break; //torn: never fully written
+
+    			//Later transactions replace earlier images of a sector
+    			for (int k = 0; k < t.getNUpdatedSectors(); k++){
+    				finalVersions.put(t.getSectorI(k), t.getDataI(k));
     			}
-    			
-    			int numSectors = (int)b[1];
-    			byte[] temp = new byte[4];
-    			System.arraycopy(b, 2, temp, 0, 4);
-    			
-    			int tid = Transaction.bytesToInt(temp);
-    			TransID id = new TransID(tid);
-    			Transaction t = new Transaction(id);
-    			
-    			for (int j = 6; j < 6 + numSectors*4; j+=4){
-    				System.arraycopy(b, j, temp, 0, 4);
-    				sectors.offer(Transaction.bytesToInt(temp));
+    			logStatus.recoverySectorsInUse(logStatus.logPosition(tail + offset), nSectors);
+
+    			offset += nSectors;
+    			seq++;
+    			nTransactions++;
+    		}
+    		//Records of the batch that was being written may lie past the
+    		//head, complete and numbered seq+1 and on, behind a torn one.
+    		//A later record could end right where one of them starts, and
+    		//a second crash would then replay it. There are fewer such
+    		//records than log sectors, so skip past all of their numbers.
+    		seq += logSectors;
+    		logStatus.recoveredHead(logStatus.logPosition(tail + offset), seq);
+
+    		//Replay: write the final image of each sector once, all at once
+    		if (nTransactions > 0) {
+    			List<CompletableFuture<DiskResult>> writes =
+    				new ArrayList<CompletableFuture<DiskResult>>(finalVersions.size());
+    			for (Map.Entry<Integer, byte[]> e : finalVersions.entrySet()){
+    				writes.add(write(DISK_WRITE_TAG, homeSector(e.getKey()), e.getValue()));
     			}
-    			
-    			t.numSectors = numSectors;
-    			
-    			Iterator<Integer> itr = sectors.iterator();
-    			
-    			while(itr.hasNext())
-    			{
-    				i++;
-    				if(i > ADisk.REDO_LOG_SECTORS)
-    					i = 1;
-    				
-    				temp = new byte[Disk.SECTOR_SIZE];
-    				this.read(i, temp);
-    				int num = itr.next();
-    				t.addWrite(num, temp);
+    			waitFor(writes);
+    			for (Map.Entry<Integer, byte[]> e : finalVersions.entrySet()){
+    				cache.update(e.getKey(), e.getValue());
     			}
-
-    			wList.addCommitted(t);
-    			//Just skip the commit block
-    			i++;
     		}
+    		//Move the tail past the whole recovered log, and record the
+    		//new numbering even if there was nothing to replay
+    		logStatus.writeLogHeader(offset, seq);
+
+    		recoveredTransactions = nTransactions;
+    		replayedSectors = finalVersions.size();
+    		recoveryTimeMs = (System.nanoTime() - start) / 1000000;
+    		System.out.println("Recovered " + nTransactions + " transactions ("
+    				+ offset + " log sectors, " + replayedSectors + " sectors replayed) in "
+    				+ recoveryTimeMs + " ms");
     	} catch (IllegalArgumentException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -207,25 +319,83 @@ public class ADisk {
 
     // -----------------------------------------------------------------------
     //
-    // called by ADisk constructor, writes 0's to every sector in the disk
+    // Read up to nSectors more of the log into region, which holds the log
+    // in order from the tail and has loaded sectors already. The reads go
+    // out together, up to Disk.MAX_COALESCE_SECTORS per request (split where
+    // the log wraps). Returns how many sectors region now holds.
+    //
+    // -----------------------------------------------------------------------
+    private int readLog(byte[] region, int tail, int loaded, int nSectors)
+    		throws IllegalArgumentException, IOException {
+    	int logSectors = logStatus.getLogSectors();
+    	int end = Math.min(loaded + nSectors, logSectors);
+    	List<CompletableFuture<DiskResult>> reads =
+    		new ArrayList<CompletableFuture<DiskResult>>();
+    	List<byte[]> buffers = new ArrayList<byte[]>();
+    	List<Integer> offsets = new ArrayList<Integer>();
+    	int offset = loaded;
+    	while (offset < end) {
+    		int position = logStatus.logPosition(tail + offset);
+    		int count = Math.min(end - offset, Disk.MAX_COALESCE_SECTORS);
+    		count = Math.min(count, logSectors - position + 1); //stop at the wrap
+    		byte[] b = new byte[count * Disk.SECTOR_SIZE];
+    		reads.add(disk.submit(Disk.READ, READ_TAG, position, count, b));
+    		buffers.add(b);
+    		offsets.add(offset);
+    		offset += count;
+    	}
+    	waitFor(reads);
+    	for (int k = 0; k < buffers.size(); k++) {
+    		byte[] b = buffers.get(k);
+    		System.arraycopy(b, 0, region, offsets.get(k) * Disk.SECTOR_SIZE, b.length);
+    	}
+    	return end;
+    }
+
+    //-------------------------------------------------------
+    //
+    // How long the last recovery took, how many committed
+    // transactions it found in the log, and how many
+    // distinct sectors it wrote to replay them
+    //
+    //-------------------------------------------------------
+    public long getRecoveryTimeMs() {
+    	return recoveryTimeMs;
+    }
+
+    public int getRecoveredTransactions() {
+    	return recoveredTransactions;
+    }
+
+    public int getReplayedSectors() {
+    	return replayedSectors;
+    }
+
+    // -----------------------------------------------------------------------
+    //
+    // called by ADisk constructor, makes every sector in the disk read as 0's
+    // (so the PTree allocation maps start out empty) and starts an empty log
     //
     // -----------------------------------------------------------------------
 	private void format() throws IllegalArgumentException, IOException {
         try {
         	System.out.println("Formatting disk");
         	lock.lock();
-            byte[] b = new byte[Disk.SECTOR_SIZE];
-            for (int i = 0; i < b.length; i++) {
-                b[i] = 0;
-            }
-        	tracker.resetNumFormatWritesCompleted();
-            for (int i = 0; i < Disk.NUM_OF_SECTORS; i++) {
-                //make sure another thread isn't updating this sector, need a condition variable
-                //also need a way to keep track of statuses of sectors i think
-            	
-                write(CallbackTracker.FORMAT_TAG, i, b);
-            }
-            tracker.formatWriteCompletionWait(Disk.NUM_OF_SECTORS);
+        	if (LAZY_FORMAT) {
+        		disk.wipe();
+        	} else {
+	            byte[] b = new byte[Disk.SECTOR_SIZE];
+	            List<CompletableFuture<DiskResult>> writes =
+	                new ArrayList<CompletableFuture<DiskResult>>(Disk.NUM_OF_SECTORS);
+	            for (int i = 0; i < Disk.NUM_OF_SECTORS; i++) {
+	                writes.add(write(FORMAT_TAG, i, b));
+	            }
+	            waitFor(writes);
+	            disk.flush();
+        	}
+            cache.clear();
+            //Empty log: tail at the start, first record numbered 1
+            logStatus.writeLogHeader(0, 1);
             System.out.println("Formatting completed");
         } finally {
             lock.unlock();
@@ -241,7 +411,29 @@ public class ADisk {
     //
     //-------------------------------------------------------
     public int getNSectors() {
-        return Disk.NUM_OF_SECTORS - Disk.ADISK_REDO_LOG_SECTORS; //FIXME
+        return Disk.NUM_OF_SECTORS - logStatus.getLogSectors() - 1;
+    }
+
+    //-------------------------------------------------------
+    //
+    // Disk sector that holds data sector sectorNum. Data
+    // sectors are numbered from REDO_LOG_SECTORS + 1 and
+    // start on disk right after the log.
+    //
+    //-------------------------------------------------------
+    public int homeSector(int sectorNum) {
+        return sectorNum - REDO_LOG_SECTORS + logStatus.getLogSectors();
+    }
+
+    private void checkSector(int sectorNum) throws IndexOutOfBoundsException {
+        if (sectorNum < FIRST_SECTOR_NUM || sectorNum > REDO_LOG_SECTORS + getNSectors())
+            throw new IndexOutOfBoundsException("Bad sector " + sectorNum);
+    }
+
+    //Before any copy into buffer (the cache copies a whole sector)
+    private static void checkBuffer(byte buffer[]) throws IllegalArgumentException {
+        if (buffer == null || buffer.length < Disk.SECTOR_SIZE)
+            throw new IllegalArgumentException("Buffer smaller than a sector");
     }
 
     //-------------------------------------------------------
@@ -289,35 +481,41 @@ public class ADisk {
     //-------------------------------------------------------
     public void commitTransaction(TransID tid)
             throws IOException{
-        //need to remove TID from tList
-        //add transaction to the log
-        //once transaction is on the log, add to writeBackList
-		try {
-	        Transaction t = aList.get(tid);
-
-	        //Write to the log
-	        int newWritePosition = logStatus.writeToLog(t);
-	        
-	        if(newWritePosition == -1)
-	        	throw new IOException("Disk is dead");
-	        
-	        //Set status of transaction to committed
-	        t.commit();
+        //The commit thread puts the transaction in the log together
+        //with any others committing now, then moves it from the
+        //active transaction list to the writeBackList
+        waitFor(startCommit(tid));
+    }
 
-	        //Move the stuff to the write back list
-	        wList.addCommitted(t);
-	        
-	        //Remove it from the active transaction list
-	        aList.remove(tid);
-		}
-		finally {
-			//Should i do this?
-	        //logStatus.useStatus = logStatus.OK;
-	        //logWrite.signal();
-		}
+
+    //-------------------------------------------------------
+    //
+    // Like commitTransaction, but return at once. The
+    // future completes once the commit is safely in the
+    // log, or completes exceptionally with the exception
+    // commitTransaction would have thrown. It is completed
+    // from the common pool rather than the commit thread,
+    // so dependent actions may block, or commit another
+    // transaction and wait for it.
+    //
+    //-------------------------------------------------------
+    public CompletableFuture<Void> commitTransactionAsync(TransID tid)
+            throws IllegalArgumentException {
+        return startCommit(tid).whenCompleteAsync((v, e) -> { });
+    }
+
+    //
+    // Queue tid with the commit thread. The future is
+    // completed on that thread, so it is only waited on here.
+    //
+    private CompletableFuture<Void> startCommit(TransID tid)
+            throws IllegalArgumentException {
+        Transaction t = aList.get(tid);
+        if (t == null)
+            throw new IllegalArgumentException("No active transaction " + tid);
+        return commitThread.commit(t);
     }
 
-    
 	//-------------------------------------------------------
     //
     // Free up the resources for this transaction without
@@ -358,7 +556,7 @@ public class ADisk {
     //Return value 
     // 1 => buffer read from active transaction list
     // 2 => buffer read from writeBackList
-    // 3 => buffer read from disk
+    // 3 => buffer read from disk (or the sector cache)
     //-------------------------------------------------------
     public int readSector(TransID tid, int sectorNum, byte buffer[])
             throws IOException, IndexOutOfBoundsException {
@@ -367,8 +565,8 @@ public class ADisk {
         //if still not found, read from the log and finally the disk
     	Transaction thisTransaction;
     	
-    	if(sectorNum< 0 + Disk.ADISK_REDO_LOG_SECTORS || sectorNum > Disk.NUM_OF_SECTORS)
-    		throw new IndexOutOfBoundsException();
+    	checkSector(sectorNum);
+    	checkBuffer(buffer);
     	
     	//Check the active transaction list
     	thisTransaction = aList.get(tid);
@@ -377,19 +575,57 @@ public class ADisk {
     		if(thisTransaction.checkRead(sectorNum, buffer))
     			return 1;
     	
+    	//Taken before the WriteBackList check: if a writeback of this
+    	//sector finishes while we read the disk, we must not cache
+    	//what we read
+    	int version = cache.version(sectorNum);
+
     	//Check the WriteBackList
     	if(wList.checkRead(sectorNum, buffer))
     		return 2;
 
-    	//If there is one more request for a read to this same sector, then we will have to wait
-    	//until that read completes and then only issue our request
-    	tracker.waitForReadSector(sectorNum);
-    	disk.startRequest(Disk.READ, CallbackTracker.READ_TAG, sectorNum, buffer);
-    	tracker.readCompletionWait(sectorNum);
+    	//Anything not in the WriteBackList is current in the cache
+    	if(cache.get(sectorNum, buffer))
+    		return 3;
+
+    	//Our read has its own completion handle, so reads of the
+    	//same sector do not need to wait for each other
+    	waitFor(disk.submit(Disk.READ, READ_TAG, homeSector(sectorNum), buffer));
+    	cache.fill(sectorNum, buffer, version);
     	
     	return 3;
     }
 
+    //-------------------------------------------------------
+    //
+    // Like readSector, but return at once. The future
+    // completes with readSector's return value once buffer
+    // holds the data, or exceptionally if the disk read
+    // fails. The caller must not touch buffer until then.
+    //
+    //-------------------------------------------------------
+    public CompletableFuture<Integer> readSectorAsync(TransID tid, int sectorNum, byte buffer[])
+            throws IOException, IndexOutOfBoundsException {
+    	checkSector(sectorNum);
+    	checkBuffer(buffer);
+
+    	Transaction thisTransaction = aList.get(tid);
+    	if(thisTransaction != null && thisTransaction.checkRead(sectorNum, buffer))
+    		return CompletableFuture.completedFuture(1);
+
+    	final int version = cache.version(sectorNum);
+    	if(wList.checkRead(sectorNum, buffer))
+    		return CompletableFuture.completedFuture(2);
+
+    	if(cache.get(sectorNum, buffer))
+    		return CompletableFuture.completedFuture(3);
+
+    	return disk.submit(Disk.READ, ASYNC_READ_TAG, homeSector(sectorNum), buffer).thenApply(r -> {
+    		cache.fill(sectorNum, buffer, version);
+    		return 3;
+    	});
+    }
+
     //-------------------------------------------------------
     //
     // Buffer the specified update as part of the in-memory
@@ -413,8 +649,7 @@ public class ADisk {
             throws IllegalArgumentException,
             IndexOutOfBoundsException {
     	
-    	if(sectorNum< 0 + Disk.ADISK_REDO_LOG_SECTORS || sectorNum > Disk.NUM_OF_SECTORS)
-    		throw new IndexOutOfBoundsException();
+    	checkSector(sectorNum);
     	
     	Transaction thisTransaction = aList.get(tid);
     	
@@ -424,43 +659,70 @@ public class ADisk {
     	thisTransaction.addWrite(sectorNum, buffer);
     }
 
-    public void write(int tag, int sectorNum, byte[] b) 
+    //-------------------------------------------------------
+    //
+    // Start writing b to sectorNum once no other write to
+    // it is in progress. Return a handle that completes when
+    // this write is done; wait on it with waitFor().
+    //
+    //-------------------------------------------------------
+    public CompletableFuture<DiskResult> write(int tag, int sectorNum, byte[] b) 
     throws IllegalArgumentException, IOException {
+        //Wait for the sector to become free and set it to INPROGRESS.
+        //Only waiters on this sector's stripe are woken when it is done,
+        //and no ADisk-wide lock is held while waiting.
+        //A dead disk never finishes the write, so don't wait for it.
+        if (disk.isDead()) {
+            throw new IOException("Disk is dead");
+        }
+        status.beginWrite(sectorNum);
+        boolean started = false;
         try {
-            lock.lock();
-            
-            //Check for the status of the sector and wait for it to become free
-            while (status[sectorNum] == INPROGRESS) {
-                tracker.waitForSector();
-            }
-            assert status[sectorNum] != INPROGRESS;
-            
-            //Set the status to INPROGRESS
-            status[sectorNum] = INPROGRESS;
-            
-            disk.startRequest(Disk.WRITE, tag, sectorNum, b);// might want to catch these exceptions
-           
+            CompletableFuture<DiskResult> handle = disk.submit(Disk.WRITE, tag, sectorNum, b);
+            started = true;
+            return handle;
         } finally {
-            lock.unlock();
+            if (!started) {
+                status.endWrite(sectorNum, false);
+            }
+        }
+    }
+
+    //-------------------------------------------------------
+    //
+    // Wait until every request in handles is done. Throws
+    // IOException if any of them failed.
+    //
+    //-------------------------------------------------------
+    public static void waitFor(List<CompletableFuture<DiskResult>> handles)
+            throws IOException {
+        for (CompletableFuture<DiskResult> h : handles) {
+            waitFor(h);
+        }
+    }
+
+    public static void waitFor(CompletableFuture<?> handle)
+            throws IOException {
+        try {
+            handle.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
         }
     }
     
+    //-------------------------------------------------------
+    //
+    // Read sectorNum into b. Takes no ADisk lock and does not
+    // wait for writes in progress: Disk serves requests to a
+    // sector in the order they were started, so the read
+    // sees every write started before it.
+    //
+    //-------------------------------------------------------
     public void read(int sectorNum, byte[] b) throws IllegalArgumentException, IOException {
-    	try {
-    		lock.lock();
-            //Check for the status of the sector and wait for it to become free
-            while (status[sectorNum] == INPROGRESS) {
-                tracker.waitForSector();
-            }
-            assert status[sectorNum] != INPROGRESS;
-            
-        	tracker.waitForReadSector(sectorNum);
-        	disk.startRequest(Disk.READ, CallbackTracker.READ_TAG, sectorNum, b);
-        	tracker.readCompletionWait(sectorNum);
- 		
-    	} finally {
-    		lock.unlock();
-    	}
+    	waitFor(disk.submit(Disk.READ, READ_TAG, sectorNum, b));
     }
 
 }
@@ -1,5 +1,5 @@
 
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * ActiveTransaction.java
@@ -15,48 +15,26 @@ import java.util.Hashtable;
 public class ActiveTransactionList {
 
     /*
-     * Hash table used to keep track of 
+     * Active transactions by TransID (equal ids are equal
+     * keys, so nothing is boxed). Lookups take no lock, so
+     * the per-operation get() in readSector and writeSector
+     * does not contend with other clients.
      */
-    private Hashtable<TransID, Transaction> table;
-    private SimpleLock lock;
+    private ConcurrentHashMap<TransID, Transaction> table;
 
     public ActiveTransactionList() {
-    	table = new Hashtable<TransID, Transaction>();
-    	lock = new SimpleLock();
+    	table = new ConcurrentHashMap<TransID, Transaction>();
     }
 
     public void put(TransID id, Transaction trans) {
-    	try{
-    		lock.lock();
-    		table.put(id, trans);	
-    	}
-    	finally
-    	{
-    		lock.unlock();
-    	}
+    	table.put(id, trans);
     }
 
     public Transaction get(TransID tid) {
-    	try{
-    		lock.lock();
-    		return table.get(tid);	
-    	}
-    	finally
-    	{
-    		lock.unlock();
-    	}
-        
+    	return table.get(tid);
     }
 
     public Transaction remove(TransID tid) {
-    	try{
-    		lock.lock();
-    		return table.remove(tid);	
-    	}
-    	finally
-    	{
-    		lock.unlock();
-    	}
-        
+    	return table.remove(tid);
     }
 }
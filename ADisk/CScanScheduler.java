@@ -0,0 +1,68 @@
+/*
+ * CScanScheduler.java
+ *
+ * Circular elevator: sweep upward through sector numbers
+ * from where the last request left off, then wrap to the
+ * lowest runnable sector and sweep up again.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.Map;
+import java.util.TreeMap;
+
+public class CScanScheduler implements DiskScheduler{
+  private TreeMap<Integer, DiskResult> bySector;
+  private int headPosition;
+
+  public CScanScheduler()
+  {
+    bySector = new TreeMap<Integer, DiskResult>();
+    headPosition = 0;
+  }
+
+  public void add(DiskResult dr)
+  {
+    DiskResult old = bySector.put(dr.getSectorNum(), dr);
+    assert(old == null); // Disk holds back later requests to a sector
+  }
+
+  public DiskResult next()
+  {
+    Map.Entry<Integer, DiskResult> e = bySector.ceilingEntry(headPosition);
+    if(e == null){
+      e = bySector.firstEntry();
+      if(e == null){
+        return null;
+      }
+    }
+    return take(e.getValue());
+  }
+
+  public void remove(DiskResult dr)
+  {
+    if(bySector.get(dr.getSectorNum()) == dr){
+      bySector.remove(dr.getSectorNum());
+    }
+  }
+
+  public boolean isEmpty()
+  {
+    return bySector.isEmpty();
+  }
+
+  //-------------------------------------------------------
+  // take -- remove dr (if still held) and move the head
+  // past it. Returns null if dr was already served.
+  //-------------------------------------------------------
+  DiskResult take(DiskResult dr)
+  {
+    if(bySector.get(dr.getSectorNum()) != dr){
+      return null;
+    }
+    bySector.remove(dr.getSectorNum());
+    headPosition = dr.getSectorNum() + 1;
+    return dr;
+  }
+}
@@ -0,0 +1,379 @@
+/*
+ * CommitTests.java
+ *
+ * Tests of the commit path: group commit in the commit
+ * thread, writeback to the home sectors and committers
+ * waiting for log space.
+ *
+ * java CommitTests to run. Formats the disk.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CommitTests {
+
+	private static final int FIRST_SECTOR = ADisk.FIRST_SECTOR_NUM;
+	private static final int N_THREADS = 8;
+	private static final int N_COMMITS = 20; //per thread
+	private static final int SMALL_LOG = 64;
+	private static final int N_ROUNDS = 200;
+	private static final int ORDER_SECTOR = FIRST_SECTOR + 1000;
+	private static final int ORDER_SECTORS = 2 * WriteBackThread.WRITEBACK_WORKERS;
+	private static final int FULL_LOG_SECTOR = 2000; //offset from FIRST_SECTOR
+	private static final int FULL_LOG_WRITES = 4; //sectors per transaction
+	private static final long BLOCKED_MS = 200; //how long a reserve must stay blocked
+
+	//-------------------------------------------------------
+	// main() -- java CommitTests to run this test
+	//-------------------------------------------------------
+	public static void main(String[] args) throws Exception {
+		ADisk d = new ADisk(true);
+
+		//----------------------------------------------------------
+		//group commit
+		//----------------------------------------------------------
+		testLoneCommitter(d);
+		System.out.println("Lone committer OK");
+		testConcurrentCommitters(d);
+		System.out.println("Concurrent committers batched OK");
+		testChainedCommit(d);
+		System.out.println("Chained async commit OK");
+
+		//----------------------------------------------------------
+		//writeback
+		//----------------------------------------------------------
+		testLastWriteWins(d);
+		System.out.println("Last committed write wins OK");
+		drain(d);
+
+		ADisk small = new ADisk(true, SMALL_LOG);
+		testOversizedCommit(small);
+		System.out.println("Oversized commit OK");
+		testLastWriteWins(small); //a full log: big windows, several in flight
+		System.out.println("Last committed write wins with a small log OK");
+		drain(small);
+
+		//----------------------------------------------------------
+		//log space
+		//----------------------------------------------------------
+		testReserveBlocks(small);
+		System.out.println("Reserve blocks until writeback frees space OK");
+		testFullLog(small);
+		System.out.println("Committers wait for a full log OK");
+		drain(small);
+		testReserveAfterWriteBackFailed(small); //leaves small unusable
+		System.out.println("Reserve released by failed writeback OK");
+
+		System.out.println("All commit tests OK");
+		System.exit(0);
+	}
+
+	//
+	// One thread committing one transaction at a time gets a
+	// log append for each: there is nobody to batch with
+	//
+	private static void testLoneCommitter(ADisk d) throws IOException {
+		long batches = d.commitThread.getBatches();
+		long commits = d.commitThread.getCommits();
+		for (int k = 0; k < N_COMMITS; k++) {
+			TransID tid = d.beginTransaction();
+			d.writeSector(tid, FIRST_SECTOR + k, pattern(k));
+			d.commitTransaction(tid);
+		}
+		check(d.commitThread.getCommits() - commits == N_COMMITS,
+				"lone committer: " + (d.commitThread.getCommits() - commits) + " commits");
+		check(d.commitThread.getBatches() - batches == N_COMMITS,
+				"lone committer: " + N_COMMITS + " commits in "
+				+ (d.commitThread.getBatches() - batches) + " batches");
+		checkSectors(d, 0, N_COMMITS, "lone committer");
+	}
+
+	//
+	// Threads committing at the same time share log appends,
+	// and every commit still lands
+	//
+	private static void testConcurrentCommitters(ADisk d) throws Exception {
+		long batches = d.commitThread.getBatches();
+		long commits = d.commitThread.getCommits();
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> errors = new ArrayList<Throwable>();
+		for (int t = 0; t < N_THREADS; t++) {
+			final int base = (t + 1) * N_COMMITS;
+			Thread th = new Thread(() -> {
+				try {
+					for (int k = base; k < base + N_COMMITS; k++) {
+						TransID tid = d.beginTransaction();
+						d.writeSector(tid, FIRST_SECTOR + k, pattern(k));
+						d.commitTransaction(tid);
+					}
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			threads.add(th);
+			th.start();
+		}
+		for (Thread th : threads) {
+			th.join();
+		}
+		check(errors.isEmpty(), "concurrent committers: " + errors);
+		long nCommits = d.commitThread.getCommits() - commits;
+		long nBatches = d.commitThread.getBatches() - batches;
+		check(nCommits == N_THREADS * N_COMMITS, "concurrent committers: " + nCommits + " commits");
+		check(nBatches < nCommits, "concurrent committers: " + nCommits + " commits in "
+				+ nBatches + " batches");
+		System.out.println(nCommits + " commits in " + nBatches + " batches");
+		checkSectors(d, N_COMMITS, (N_THREADS + 1) * N_COMMITS, "concurrent committers");
+	}
+
+	//
+	// A commit started from the completion of another must
+	// not wait on the commit thread that completed it
+	//
+	private static void testChainedCommit(ADisk d) throws Exception {
+		int sector = FIRST_SECTOR + (N_THREADS + 1) * N_COMMITS;
+		TransID first = d.beginTransaction();
+		d.writeSector(first, sector, pattern(1));
+		TransID second = d.beginTransaction();
+		d.writeSector(second, sector + 1, pattern(2));
+		CompletableFuture<Void> both = d.commitTransactionAsync(first).thenRun(() -> {
+			try {
+				d.commitTransaction(second);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		both.get(10, TimeUnit.SECONDS);
+		TransID tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		d.readSector(tid, sector, b);
+		check(sameData(b, pattern(1)), "chained commit: first lost");
+		d.readSector(tid, sector + 1, b);
+		check(sameData(b, pattern(2)), "chained commit: second lost");
+		d.abortTransaction(tid);
+	}
+
+	//
+	// Commit many rounds of writes to the same sectors, which
+	// go to every writeback worker, without waiting in between.
+	// Once writeback has emptied the log each home sector
+	// holds the last round, whichever worker wrote it.
+	//
+	private static void testLastWriteWins(ADisk d) throws Exception {
+		List<CompletableFuture<Void>> commits = new ArrayList<CompletableFuture<Void>>();
+		for (int r = 0; r < N_ROUNDS; r++) {
+			TransID tid = d.beginTransaction();
+			for (int j = 0; j < ORDER_SECTORS; j++) {
+				//Skip a sector now and then, so rounds overlap in
+				//different ways on each worker
+				if (r < N_ROUNDS - 1 && (r + j) % 3 == 0)
+					continue;
+				d.writeSector(tid, ORDER_SECTOR + j, pattern(r * ORDER_SECTORS + j));
+			}
+			commits.add(d.commitTransactionAsync(tid));
+		}
+		for (CompletableFuture<Void> c : commits) {
+			ADisk.waitFor(c);
+		}
+		drain(d);
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int j = 0; j < ORDER_SECTORS; j++) {
+			d.read(d.homeSector(ORDER_SECTOR + j), b);
+			check(sameData(b, pattern((N_ROUNDS - 1) * ORDER_SECTORS + j)),
+					"home sector " + (ORDER_SECTOR + j) + " does not hold the last commit");
+		}
+	}
+
+	//
+	// A transaction bigger than the whole log fails with an
+	// IOException, stays active, and commits after it go on
+	//
+	private static void testOversizedCommit(ADisk d) throws IOException {
+		TransID big = d.beginTransaction();
+		for (int k = 0; k < SMALL_LOG; k++) {
+			d.writeSector(big, FIRST_SECTOR + k, pattern(k));
+		}
+		try {
+			d.commitTransaction(big);
+			fail("oversized commit: a " + SMALL_LOG + " sector transaction fit a "
+					+ SMALL_LOG + " sector log");
+		} catch (IOException e) {
+			//expected
+		}
+		d.abortTransaction(big);
+
+		TransID tid = d.beginTransaction();
+		d.writeSector(tid, FIRST_SECTOR, pattern(1));
+		d.commitTransaction(tid);
+		tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		d.readSector(tid, FIRST_SECTOR, b);
+		check(sameData(b, pattern(1)), "oversized commit: next commit lost");
+		d.abortTransaction(tid);
+	}
+
+	//
+	// With the log nearly full a reservation waits, is not let
+	// through by too little space, and goes on once writeback
+	// frees enough. One bigger than the log fails at once.
+	// Writeback is idle, so only this test moves usedSectors.
+	//
+	private static void testReserveBlocks(ADisk d) throws Exception {
+		LogStatus log = d.logStatus;
+		check(log.getUsedSectors() == 0, "reserve: log not empty");
+		long waits = log.getReserveWaits();
+		log.reserveLogSectors(SMALL_LOG - 4);
+
+		CompletableFuture<Integer> blocked = reserveInBackground(log, 8);
+		Thread.sleep(BLOCKED_MS);
+		check(!blocked.isDone(), "reserve: got 8 sectors with 4 free");
+		check(log.getReserveWaits() == waits + 1, "reserve: wait not counted");
+
+		log.writeBackDone(0, 2);
+		Thread.sleep(BLOCKED_MS);
+		check(!blocked.isDone(), "reserve: got 8 sectors with 6 free");
+
+		log.writeBackDone(0, SMALL_LOG - 6);
+		blocked.get(10, TimeUnit.SECONDS);
+		check(log.getUsedSectors() == 8, "reserve: " + log.getUsedSectors() + " sectors in use");
+		log.writeBackDone(0, 8);
+
+		try {
+			log.reserveLogSectors(SMALL_LOG + 1);
+			fail("reserve: got more sectors than the log has");
+		} catch (IOException e) {
+			//expected
+		}
+		check(log.getUsedSectors() == 0, "reserve: failed reservation kept space");
+	}
+
+	//
+	// Committers that outrun writeback on a small log wait for
+	// space instead of overrunning the tail, and every commit
+	// lands
+	//
+	private static void testFullLog(ADisk d) throws Exception {
+		long waits = d.logStatus.getReserveWaits();
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Throwable> errors = new ArrayList<Throwable>();
+		for (int t = 0; t < N_THREADS; t++) {
+			final int base = FULL_LOG_SECTOR + t * N_COMMITS * FULL_LOG_WRITES;
+			Thread th = new Thread(() -> {
+				try {
+					for (int k = base; k < base + N_COMMITS * FULL_LOG_WRITES; k += FULL_LOG_WRITES) {
+						TransID tid = d.beginTransaction();
+						for (int j = k; j < k + FULL_LOG_WRITES; j++) {
+							d.writeSector(tid, FIRST_SECTOR + j, pattern(j));
+						}
+						d.commitTransaction(tid);
+					}
+				} catch (Throwable e) {
+					synchronized (errors) {
+						errors.add(e);
+					}
+				}
+			});
+			threads.add(th);
+			th.start();
+		}
+		for (Thread th : threads) {
+			th.join();
+		}
+		check(errors.isEmpty(), "full log: " + errors);
+		check(d.logStatus.getPeakUsedSectors() <= SMALL_LOG,
+				"full log: " + d.logStatus.getPeakUsedSectors() + " sectors in use");
+		check(d.logStatus.getReserveWaits() > waits, "full log: no committer waited for space");
+		checkSectors(d, FULL_LOG_SECTOR,
+				FULL_LOG_SECTOR + N_THREADS * N_COMMITS * FULL_LOG_WRITES, "full log");
+	}
+
+	//
+	// A reservation waiting on a full log fails once writeback
+	// has failed, since the space will never come back
+	//
+	private static void testReserveAfterWriteBackFailed(ADisk d) throws Exception {
+		LogStatus log = d.logStatus;
+		log.reserveLogSectors(SMALL_LOG);
+		CompletableFuture<Integer> blocked = reserveInBackground(log, 1);
+		Thread.sleep(BLOCKED_MS);
+		check(!blocked.isDone(), "failed writeback: got a sector of a full log");
+		log.writeBackFailed(new IOException("test"));
+		try {
+			blocked.get(10, TimeUnit.SECONDS);
+			fail("failed writeback: reserve went on");
+		} catch (ExecutionException e) {
+			check(e.getCause() instanceof IOException, "failed writeback: " + e.getCause());
+		}
+	}
+
+	//-------------------------------------------------------
+	// helpers
+	//-------------------------------------------------------
+	private static CompletableFuture<Integer> reserveInBackground(LogStatus log, int nSectors) {
+		CompletableFuture<Integer> done = new CompletableFuture<Integer>();
+		new Thread(() -> {
+			try {
+				done.complete(log.reserveLogSectors(nSectors));
+			} catch (Throwable e) {
+				done.completeExceptionally(e);
+			}
+		}).start();
+		return done;
+	}
+
+	private static void checkSectors(ADisk d, int from, int to, String what) throws IOException {
+		TransID tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int k = from; k < to; k++) {
+			d.readSector(tid, FIRST_SECTOR + k, b);
+			check(sameData(b, pattern(k)), what + ": sector " + (FIRST_SECTOR + k) + " lost");
+		}
+		d.abortTransaction(tid);
+	}
+
+	//
+	// Wait for writeback to empty the log, so the next ADisk
+	// formats a quiet disk
+	//
+	private static void drain(ADisk d) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 30000;
+		while (d.logStatus.getUsedSectors() > 0) {
+			check(System.currentTimeMillis() < deadline, "log did not drain: "
+					+ d.logStatus.getUsedSectors() + " sectors in use");
+			Thread.sleep(10);
+		}
+	}
+
+	private static byte[] pattern(int k) {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) (k * 31 + i + 1);
+		}
+		return b;
+	}
+
+	private static boolean sameData(byte[] a, byte[] b) {
+		return Arrays.equals(a, b);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			fail(what);
+	}
+
+	private static void fail(String what) {
+		System.out.println("FAILED: " + what);
+		System.exit(-1);
+	}
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/*
+ * CommitThread.java
+ *
+ * Group commit. Committing transactions queue here; the
+ * thread takes a batch of them, numbers their records
+ * with consecutive sequence numbers, appends them to the
+ * log together and flushes the Disk once for the whole
+ * batch. Sector 0 is not written: recovery finds the
+ * records by their sequence numbers.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+public class CommitThread extends Thread{
+
+	//-------------------------------------------------------
+	// Most transactions committed in one log append
+	//-------------------------------------------------------
+	public static final int MAX_BATCH = 16;
+
+	//-------------------------------------------------------
+	// How long the first transaction of a batch waits for
+	// others to join it, when there are others committing
+	// (see nextBatch). 0 commits whatever is queued at once.
+	//-------------------------------------------------------
+	public static final long MAX_WAIT_MS = 1;
+
+	private static class Pending{
+		Transaction t;
+		CompletableFuture<Void> done;
+
+		Pending(Transaction t, CompletableFuture<Void> done){
+			this.t = t;
+			this.done = done;
+		}
+	}
+
+	private ADisk ad;
+	private SimpleLock lock;
+	private Condition commitQueued;
+	private LinkedList<Pending> queue;
+	private int lastBatchSize; //only touched by this thread
+	private volatile long batches; //log appends; only written by this thread
+	private volatile long commits; //transactions in them
+
+	public CommitThread(ADisk adisk) {
+		ad = adisk;
+		lock = new SimpleLock();
+		commitQueued = lock.newCondition();
+		queue = new LinkedList<Pending>();
+		lastBatchSize = 0;
+	}
+
+	//
+	// Queue t for commit. The future completes once t is in
+	// the log and on the writebacklist. It is completed on
+	// this thread, so dependent actions added without *Async
+	// run here and must not block (see
+	// ADisk.commitTransactionAsync).
+	//
+	public CompletableFuture<Void> commit(Transaction t)
+	{
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		try
+		{
+			lock.lock();
+			queue.add(new Pending(t, done));
+			commitQueued.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return done;
+	}
+
+	public void run() {
+		while(true){
+			List<Pending> batch = new ArrayList<Pending>();
+			List<Transaction> transactions = new ArrayList<Transaction>();
+			for(Pending p : nextBatch()){
+				//Mark it committed before it goes in the log; a
+				//transaction that fails stays out of it
+				try
+				{
+					if(p.t.getNLogSectors() > ad.logStatus.getLogSectors())
+						throw new IOException("Log is full: transaction needs "
+								+ p.t.getNLogSectors() + " log sectors");
+					p.t.commit();
+				}
+				catch(Throwable e)
+				{
+					p.done.completeExceptionally(e);
+					continue;
+				}
+				batch.add(p);
+				transactions.add(p.t);
+			}
+			if(batch.isEmpty())
+				continue;
+
+			//Whatever goes wrong with this batch fails only its
+			//commits; this thread must live on for later ones
+			try
+			{
+				if(ad.logStatus.writeToLog(transactions) == -1)
+					throw new IOException("Disk is dead");
+
+				//Log order is commit order, so hand the batch to the
+				//writebacklist in the order it was written
+				batches++;
+				commits += batch.size();
+				for(Pending p : batch){
+					ad.wList.addCommitted(p.t);
+					ad.aList.remove(p.t.tid);
+					p.done.complete(null);
+				}
+			}
+			catch(Throwable e)
+			{
+				for(Pending p : batch){
+					p.done.completeExceptionally(e);
+				}
+			}
+			lastBatchSize = batch.size();
+		}
+	}
+
+	//
+	// Batches appended to the log and the transactions
+	// committed in them
+	//
+	public long getBatches()
+	{
+		return batches;
+	}
+
+	public long getCommits()
+	{
+		return commits;
+	}
+
+	//
+	// Wait for a transaction to commit, then give others up to
+	// MAX_WAIT_MS to join it, and take at most MAX_BATCH, and
+	// no more than fit in the log together. Only wait when
+	// someone else is committing too: another commit is
+	// already queued, or the last batch had more than one.
+	// A lone committer goes straight to the log.
+	//
+	private List<Pending> nextBatch()
+	{
+		try
+		{
+			lock.lock();
+			while(queue.isEmpty())
+			{
+				commitQueued.awaitUninterruptibly();
+			}
+			long left = 0;
+			if(queue.size() > 1 || lastBatchSize > 1)
+				left = TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MS);
+			while(queue.size() < MAX_BATCH && left > 0)
+			{
+				try
+				{
+					left = commitQueued.awaitNanos(left);
+				}
+				catch(InterruptedException e)
+				{
+					break;
+				}
+			}
+			List<Pending> batch = new ArrayList<Pending>();
+			int nSectors = 0;
+			while(!queue.isEmpty() && batch.size() < MAX_BATCH)
+			{
+				int next = queue.peek().t.getNLogSectors();
+				if(!batch.isEmpty() && nSectors + next > ad.logStatus.getLogSectors())
+					break;
+				nSectors += next;
+				batch.add(queue.poll());
+			}
+			return batch;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
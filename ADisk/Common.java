@@ -5,12 +5,13 @@
  */
 public class Common{
 
-  public static final int ADISK_REDO_LOG_SECTORS = 1024;
+  public static final int ADISK_REDO_LOG_SECTORS = Disk.ADISK_REDO_LOG_SECTORS;
   public static final int TREE_METADATA_SIZE = 32;
   
   public static final int MAX_TREES = 512;
   
   public static final int MAX_CONCURRENT_TRANSACTIONS = 8;
+  // No longer enforced by ADisk: a transaction only has to fit in its log
   public static final int MAX_WRITES_PER_TRANSACTION = 32;
   
   public static final int FS_MAX_NAME = 32;
@@ -0,0 +1,71 @@
+/*
+ * DeadlineScheduler.java
+ *
+ * C-SCAN, except that a request that has been runnable
+ * for longer than the deadline is served next, oldest
+ * first, so a long sweep cannot starve it.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.LinkedList;
+
+public class DeadlineScheduler implements DiskScheduler{
+  public static final int DEFAULT_DEADLINE_MS = 50;
+
+  private CScanScheduler scan;
+  //
+  // Runnable requests in arrival order. Requests the scan
+  // already served stay until they would have expired,
+  // then are dropped.
+  //
+  private LinkedList<DiskResult> arrivals;
+  private long deadlineNanos;
+
+  public DeadlineScheduler()
+  {
+    this(DEFAULT_DEADLINE_MS);
+  }
+
+  public DeadlineScheduler(int deadlineMS)
+  {
+    scan = new CScanScheduler();
+    arrivals = new LinkedList<DiskResult>();
+    deadlineNanos = deadlineMS * 1000000L;
+  }
+
+  public void add(DiskResult dr)
+  {
+    dr.setReadyTime(System.nanoTime());
+    scan.add(dr);
+    arrivals.addLast(dr);
+  }
+
+  public DiskResult next()
+  {
+    long now = System.nanoTime();
+    while(!arrivals.isEmpty()){
+      DiskResult oldest = arrivals.getFirst();
+      if(now - oldest.getReadyTime() < deadlineNanos){
+        break;
+      }
+      arrivals.removeFirst();
+      DiskResult dr = scan.take(oldest);
+      if(dr != null){
+        return dr;
+      }
+    }
+    return scan.next();
+  }
+
+  public void remove(DiskResult dr)
+  {
+    scan.remove(dr); // Its arrivals entry is dropped once it expires
+  }
+
+  public boolean isEmpty()
+  {
+    return scan.isEmpty();
+  }
+}
@@ -10,29 +10,92 @@
  *
  */
 
-import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.Random;
-import java.util.ListIterator;
 
 public class Disk {
 
     public static final int NUM_OF_SECTORS = 16384;
     public static final int SECTOR_SIZE = 512;
+    // Default size of ADisk's redo log; ADisk may be formatted
+    // with a bigger one (see ADisk(boolean, int))
     public static final int ADISK_REDO_LOG_SECTORS = 1024;
 
     /* Operation types */
     public static final int READ = 19432;
     public static final int WRITE = 43255;
     public static final int BARRIER = 134219;
+
+    /* Backends */
+    public static final int BACKEND_SYNC_FILE = 5301; // "rws" file; every write synchronous
+    public static final int BACKEND_MAPPED = 5302;    // mapped file; forced at barriers and flush()
+    public static final int BACKEND_FILE = 5303;      // "rw" file; forced at barriers and flush()
+
+    public static final int DEFAULT_NUM_WORKERS = 4;
+    //
+    // Adjacent runnable requests of the same type are merged
+    // into one I/O of at most this many sectors.
+    //
+    public static final int MAX_COALESCE_SECTORS = 64;
     private static final String PATH = "DISK.dat";
-    private RandomAccessFile file;
-    private LinkedList<DiskResult> pending;
+    private DiskStore store;
+    //
+    // If set, a barrier forces the store before any later
+    // write is started, and flush() really flushes.
+    //
+    private boolean forceAtBarrier;
+    private boolean unforcedWrites;
+    private boolean forceWanted;
+    private boolean barrierInFlight;
+    //
+    // Requests move through four stages:
+    //  -- submitted is a lock-free queue that startRequest() and
+    //     addBarrier() append to without taking lock. Workers
+    //     drain it, in order, under lock.
+    //  -- sectorQueues holds every unfinished request, per sector,
+    //     in submission order. A request may be worked on only
+    //     once it is the head of the queue of every sector it
+    //     covers, so requests to one sector never pass each other
+    //     even with several workers.
+    //  -- blockedWrites holds writes that are at the head of their
+    //     sector's queue but sit behind a barrier whose earlier
+    //     writes have not all finished yet.
+    //  -- scheduler holds requests any worker may pick up and
+    //     decides which one goes next. runnableByStart indexes
+    //     the same requests by first sector for coalescing.
+    //
+    private DiskScheduler scheduler;
+    private HashMap<Integer, DiskResult> runnableByStart;
+    private LinkedList<DiskResult> blockedWrites;
+    private HashMap<Integer, LinkedList<DiskResult>> sectorQueues;
+    private ConcurrentLinkedQueue<DiskResult> submitted;
+    //
+    // Barrier epochs. Draining a barrier marker bumps
+    // submitEpoch; writes are only released once every write
+    // of an earlier epoch has finished (writeEpoch catches up).
+    // Epochs are assigned when requests are drained, so they
+    // follow submission order even though submitters never
+    // lock.
+    //
+    private int submitEpoch;
+    private int writeEpoch;
+    private HashMap<Integer, Integer> unfinishedWrites;
+    //
+    // lock guards everything above except submitted; only
+    // workers take it. Idle workers sleep on workAvailable,
+    // which gets a permit for every submission and every
+    // request a worker makes runnable.
+    //
     private SimpleLock lock;
-    private Condition workReady;
+    private Semaphore workAvailable;
+    private int nWorkers;
     //
     // For debugging, you can make the disk "fail"
     // with some specified probability per request
@@ -41,26 +104,86 @@ public class Disk {
     private float failureProb;
     private int failureCountDown;
     private Random rand;
-    private boolean diskIsDead;
+    private volatile boolean diskIsDead;
+    private boolean deathReported;
+    private DiskCallback callback;
 
     //-------------------------------------------------------
     // Disk
     //-------------------------------------------------------
     public Disk(DiskCallback callback)
             throws FileNotFoundException {
+        this(callback, DEFAULT_NUM_WORKERS);
+    }
+
+    //-------------------------------------------------------
+    // Disk -- serve requests with a pool of nWorkers
+    // DiskWorker threads. Requests to different sectors
+    // may complete in any order; requests to the same
+    // sector complete in the order they were started.
+    //-------------------------------------------------------
+    public Disk(DiskCallback callback, int nWorkers)
+            throws FileNotFoundException {
+        this(callback, nWorkers, new FileDiskStore(PATH, true), false);
+    }
+
+    //-------------------------------------------------------
+    // Disk -- as above, keeping the sectors in the given
+    // backend (one of the BACKEND_* constants).
+    //-------------------------------------------------------
+    public Disk(DiskCallback callback, int nWorkers, int backend)
+            throws IOException {
+        this(callback, nWorkers, openStore(backend), backend != BACKEND_SYNC_FILE);
+    }
+
+    private Disk(DiskCallback callback, int nWorkers, DiskStore store,
+            boolean forceAtBarrier) {
         DiskWorker dw;
 
-        this.file = new RandomAccessFile(PATH, "rws");
-        this.pending = new LinkedList<DiskResult>();
+        if (nWorkers < 1) {
+            throw new IllegalArgumentException("Bad number of workers");
+        }
+        this.store = store;
+        this.forceAtBarrier = forceAtBarrier;
+        this.unforcedWrites = false;
+        this.forceWanted = false;
+        this.barrierInFlight = false;
+        this.scheduler = new CScanScheduler();
+        this.runnableByStart = new HashMap<Integer, DiskResult>();
+        this.blockedWrites = new LinkedList<DiskResult>();
+        this.sectorQueues = new HashMap<Integer, LinkedList<DiskResult>>();
+        this.submitted = new ConcurrentLinkedQueue<DiskResult>();
+        this.submitEpoch = 0;
+        this.writeEpoch = 0;
+        this.unfinishedWrites = new HashMap<Integer, Integer>();
         this.lock = new SimpleLock();
-        this.workReady = lock.newCondition();
+        this.workAvailable = new Semaphore(0);
+        this.nWorkers = nWorkers;
         this.rand = new Random();
         this.diskIsDead = false;
+        this.deathReported = false;
         this.failureProb = (float) 0.0;
         this.failureCountDown = -1;
+        this.callback = callback;
 
-        dw = new DiskWorker(this, file, callback);
-        dw.start();
+        for (int ii = 0; ii < nWorkers; ii++) {
+            dw = new DiskWorker(this, store, callback);
+            dw.start();
+        }
+    }
+
+    private static DiskStore openStore(int backend)
+            throws IOException {
+        if (backend == BACKEND_SYNC_FILE) {
+            return new FileDiskStore(PATH, true);
+        }
+        if (backend == BACKEND_FILE) {
+            return new FileDiskStore(PATH, false);
+        }
+        if (backend == BACKEND_MAPPED) {
+            return new MappedDiskStore(PATH);
+        }
+        throw new IllegalArgumentException("Bad backend");
     }
 
     //-------------------------------------------------------
@@ -76,6 +199,23 @@ public class Disk {
         }
     }
 
+    //-------------------------------------------------------
+    // Choose how runnable requests are ordered. The default
+    // is CScanScheduler; RandomScheduler is for testing.
+    //-------------------------------------------------------
+    public void setScheduler(DiskScheduler newScheduler) {
+        try {
+            lock.lock();
+            DiskResult dr;
+            while ((dr = scheduler.next()) != null) {
+                newScheduler.add(dr);
+            }
+            this.scheduler = newScheduler;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     //-------------------------------------------------------
     // startRequest -- enqueue a read or write request.
     // Callback will be called when it completes.
@@ -86,30 +226,75 @@ public class Disk {
     //-------------------------------------------------------
     public void startRequest(int operation, int tag, int sectorNum, byte b[])
             throws IllegalArgumentException, IOException {
-        DiskResult dr;
-        try {
+        startRequest(operation, tag, sectorNum, 1, b);
+    }
+
+    //-------------------------------------------------------
+    // startRequest -- as above, for nSectors contiguous
+    // sectors starting at sectorNum. b holds them back to
+    // back. One callback reports the whole range.
+    //-------------------------------------------------------
+    public void startRequest(int operation, int tag, int sectorNum, int nSectors,
+            byte b[])
+            throws IllegalArgumentException, IOException {
+        enqueue(operation, tag, sectorNum, nSectors, b, null);
+    }
+
+    //-------------------------------------------------------
+    // submit -- like startRequest, but also return a future
+    // that completes with the DiskResult once the callback
+    // has run. It completes exceptionally with an IOException
+    // on an I/O error or if the disk dies first. Dependent
+    // actions added without *Async run on a DiskWorker, so
+    // they must not block.
+    //-------------------------------------------------------
+    public CompletableFuture<DiskResult> submit(int operation, int tag,
+            int sectorNum, byte b[])
+            throws IllegalArgumentException, IOException {
+        return submit(operation, tag, sectorNum, 1, b);
+    }
+
+    public CompletableFuture<DiskResult> submit(int operation, int tag,
+            int sectorNum, int nSectors, byte b[])
+            throws IllegalArgumentException, IOException {
+        CompletableFuture<DiskResult> future = new CompletableFuture<DiskResult>();
+        enqueue(operation, tag, sectorNum, nSectors, b, future);
+        return future;
+    }
+
+    private void enqueue(int operation, int tag, int sectorNum, int nSectors,
+            byte b[], CompletableFuture<DiskResult> future)
+            throws IllegalArgumentException, IOException {
+        if (diskIsDead) {
+            throw new IOException("Disk is dead");
+        }
+        if (nSectors < 1 || sectorNum < 0
+                || sectorNum + nSectors > NUM_OF_SECTORS) {
+            throw new IllegalArgumentException("Bad sector number");
+        }
+        if (b == null || b.length < nSectors * SECTOR_SIZE) {
+            throw new IllegalArgumentException("Bad buffer");
+        }
+        if (operation != READ && operation != WRITE) {
+            throw new IllegalArgumentException("Bad operation");
+        }
+        if (tag == DiskResult.RESERVED_TAG) {
+            throw new IllegalArgumentException("Reserved tag");
+        }
+        DiskResult dr = new DiskResult(operation, tag, sectorNum, nSectors, b);
+        dr.setFuture(future);
+        submitted.offer(dr);
+        workAvailable.release();
+        if (diskIsDead) {
+            //
+            // Raced with the disk dying; nobody may drain it.
+            //
             lock.lock();
-            if (diskIsDead) {
-                throw new IOException("Disk is dead");
-            }
-            if (sectorNum < 0 || sectorNum >= NUM_OF_SECTORS) {
-                throw new IllegalArgumentException("Bad sector number");
-            }
-            if (b == null || b.length < SECTOR_SIZE) {
-                throw new IllegalArgumentException("Bad buffer");
+            try {
+                failPending();
+            } finally {
+                lock.unlock();
             }
-            if (operation != READ && operation != WRITE) {
-                throw new IllegalArgumentException("Bad operation");
-            }
-            if (tag == DiskResult.RESERVED_TAG) {
-                throw new IllegalArgumentException("Reserved tag");
-            }
-            dr = new DiskResult(operation, tag, sectorNum, b);
-            pending.addLast(dr);
-            workReady.signal();
-            return;
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -118,95 +303,356 @@ public class Disk {
     //
     public void addBarrier()
             throws IOException {
+        if (diskIsDead) {
+            throw new IOException("Disk is dead");
+        }
+        //
+        // Writes started after this marker is drained belong to
+        // the next epoch and are held until this epoch's writes
+        // are done.
+        //
+        submitted.offer(new DiskResult(BARRIER, DiskResult.RESERVED_TAG, 0, null));
+    }
+
+    //-------------------------------------------------------
+    // wipe() -- make every sector read as zeros without
+    // writing them one by one (see DiskStore.wipe). Only
+    // for formatting: no requests may be outstanding.
+    //-------------------------------------------------------
+    public void wipe()
+            throws IOException {
+        if (diskIsDead) {
+            throw new IOException("Disk is dead");
+        }
+        store.wipe();
+    }
+
+    //-------------------------------------------------------
+    // flush() -- make every write whose callback has already
+    // run durable before returning. Used at commit points.
+    //-------------------------------------------------------
+    public void flush()
+            throws IOException {
+        if (forceAtBarrier) {
+            store.force();
+        }
+    }
+
+    //-------------------------------------------------------
+    // getWork() -- used by worker threads. Block until a
+    // request needs attention. A BARRIER request asks the
+    // worker to force the store. Runnable requests that
+    // continue the chosen one are chained on with
+    // setNextCoalesced() so the worker can serve them with
+    // a single I/O. Once the disk
+    // dies, the first caller gets an IOException (so exactly
+    // one worker reports the failure) and later callers
+    // get null.
+    //-------------------------------------------------------
+    public DiskResult getWork()
+            throws IOException {
+        while (true) {
+            //
+            // Permits only say "look again"; the queues under lock
+            // are the truth. Dropping the extras here cannot lose a
+            // wakeup because we drain submitted after doing it.
+            //
+            workAvailable.drainPermits();
+            try {
+                lock.lock();
+                drainSubmitted();
+
+                if (forceWanted || !scheduler.isEmpty()) {
+                    randomlyKillDisk();
+                }
+
+                if (diskIsDead) {
+                    if (deathReported) {
+                        return null;
+                    }
+                    deathReported = true;
+                    failPending();
+                    throw new IOException("Disk is dead");
+                }
+
+                if (forceWanted) {
+                    forceWanted = false;
+                    wakeAnother();
+                    return new DiskResult(BARRIER, DiskResult.RESERVED_TAG, 0, null);
+                }
+
+                if (!scheduler.isEmpty()) {
+                    DiskResult dr = takeRunnable();
+                    wakeAnother();
+                    return dr;
+                }
+            } finally {
+                lock.unlock();
+            }
+            workAvailable.acquireUninterruptibly();
+        }
+    }
+
+    //-------------------------------------------------------
+    // takeRunnable -- remove the scheduler's choice and
+    // chain on any requests it can be coalesced with.
+    // getWork() already flipped the coin for the first.
+    // Caller holds lock.
+    //-------------------------------------------------------
+    private DiskResult takeRunnable() {
+        DiskResult first = scheduler.next();
+        runnableByStart.remove(first.getSectorNum());
+        DiskResult last = first;
+        int total = first.getNSectors();
+        while (true) {
+            DiskResult adj = runnableByStart.get(last.getSectorNum() + last.getNSectors());
+            if (adj == null || adj.getOperation() != first.getOperation()
+                    || total + adj.getNSectors() > MAX_COALESCE_SECTORS) {
+                break;
+            }
+            //
+            // Each request gets its own chance to kill the disk,
+            // coalesced or not. Once dead, adj is left queued
+            // for failPending().
+            //
+            randomlyKillDisk();
+            if (diskIsDead) {
+                break;
+            }
+            scheduler.remove(adj);
+            runnableByStart.remove(adj.getSectorNum());
+            last.setNextCoalesced(adj);
+            last = adj;
+            total += adj.getNSectors();
+        }
+        return first;
+    }
+
+    //-------------------------------------------------------
+    // wakeAnother -- this worker is taking one piece of work;
+    // if more is waiting, make sure some other worker looks.
+    // Caller holds lock.
+    //-------------------------------------------------------
+    private void wakeAnother() {
+        if (forceWanted || !scheduler.isEmpty() || !submitted.isEmpty()) {
+            workAvailable.release();
+        }
+    }
+
+    //-------------------------------------------------------
+    // drainSubmitted -- move newly submitted requests onto
+    // their sector queues, in submission order, and turn
+    // barrier markers into epoch changes. Caller holds lock.
+    //-------------------------------------------------------
+    private void drainSubmitted() {
         DiskResult dr;
+
+        while ((dr = submitted.poll()) != null) {
+            if (dr.getOperation() == BARRIER) {
+                submitEpoch++;
+                advanceWriteEpoch();
+                continue;
+            }
+            dr.setEpoch(submitEpoch);
+            if (dr.getOperation() == WRITE) {
+                addUnfinishedWrites(submitEpoch, 1);
+            }
+            int blockers = 0;
+            for (int ii = dr.getSectorNum(); ii < dr.getSectorNum() + dr.getNSectors(); ii++) {
+                LinkedList<DiskResult> sq = sectorQueues.get(ii);
+                if (sq == null) {
+                    sq = new LinkedList<DiskResult>();
+                    sectorQueues.put(ii, sq);
+                }
+                if (!sq.isEmpty()) {
+                    blockers++;
+                }
+                sq.addLast(dr);
+            }
+            dr.setBlockers(blockers);
+            if (blockers == 0) {
+                makeRunnable(dr);
+            }
+        }
+    }
+
+    //-------------------------------------------------------
+    // forceFailed() -- used by worker threads when the
+    // force() for a barrier fails. The writes before the
+    // barrier may not be durable, so none behind it may
+    // start: the disk is treated as dead. Call before
+    // workDone() on the barrier.
+    //-------------------------------------------------------
+    public void forceFailed() {
         try {
             lock.lock();
             if (diskIsDead) {
-                throw new IOException("Disk is dead");
+                return;
             }
-            dr = new DiskResult(BARRIER, DiskResult.RESERVED_TAG, 0, null);
-            pending.addLast(dr);
-            //We do not signal here like startRequest
+            System.out.println("Force failed at barrier; killing disk");
+            diskIsDead = true;
+            workAvailable.release(nWorkers);
         } finally {
             lock.unlock();
         }
     }
 
     //-------------------------------------------------------
-    // getWork() -- used by worker thread. Block until a
-    // read or write request needs attention.
+    // workDone() -- used by worker threads once a request
+    // from getWork() has finished and its callback has
+    // run. Called once per request in a coalesced chain.
+    // Releases the next request for the same sectors and,
+    // for writes, lets later barrier epochs proceed.
     //-------------------------------------------------------
-    public DiskResult getWork()
-            throws IOException {
-        int skip;
-        DiskResult dr;
-
+    public void workDone(DiskResult dr) {
         try {
             lock.lock();
-
-            while (!diskIsDead && (pending.size() == 0
-                    || (pending.size() == 1
-                    && pending.getFirst().getOperation() == BARRIER))) {
-                workReady.awaitUninterruptibly();
+            if (dr.getOperation() == BARRIER) {
+                barrierInFlight = false;
+                unforcedWrites = false;
+                writeEpoch++;
+                releaseBlockedWrites();
+                advanceWriteEpoch();
+                return;
             }
+            for (int ii = dr.getSectorNum(); ii < dr.getSectorNum() + dr.getNSectors(); ii++) {
+                LinkedList<DiskResult> sq = sectorQueues.get(ii);
+                assert (sq != null && sq.getFirst() == dr);
+                sq.removeFirst();
+                if (sq.isEmpty()) {
+                    sectorQueues.remove(ii);
+                    continue;
+                }
+                DiskResult next = sq.getFirst();
+                next.setBlockers(next.getBlockers() - 1);
+                if (next.getBlockers() == 0) {
+                    makeRunnable(next);
+                }
+            }
+            if (dr.getOperation() == WRITE) {
+                unforcedWrites = forceAtBarrier;
+                addUnfinishedWrites(dr.getEpoch(), -1);
+                advanceWriteEpoch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            randomlyKillDisk();
+    //-------------------------------------------------------
+    // makeRunnable -- dr is now at the head of its sectors'
+    // queues. Reads can pass barriers; writes wait for
+    // their epoch. Caller holds lock.
+    //-------------------------------------------------------
+    private void makeRunnable(DiskResult dr) {
+        if (dr.getOperation() == WRITE && dr.getEpoch() > writeEpoch) {
+            blockedWrites.addLast(dr);
+            return;
+        }
+        schedule(dr);
+    }
 
-            if (diskIsDead) {
-                throw new IOException("Disk is dead");
+    //-------------------------------------------------------
+    // schedule -- hand a runnable request to the scheduler.
+    // Caller holds lock.
+    //-------------------------------------------------------
+    private void schedule(DiskResult dr) {
+        scheduler.add(dr);
+        runnableByStart.put(dr.getSectorNum(), dr);
+        workAvailable.release();
+    }
+
+    //-------------------------------------------------------
+    // advanceWriteEpoch -- move past every barrier whose
+    // earlier writes have all finished and release the
+    // writes held behind it. If those writes are not yet
+    // durable, hand a worker a BARRIER request to force the
+    // store first; workDone() moves on once it is done.
+    // Caller holds lock.
+    //-------------------------------------------------------
+    private void advanceWriteEpoch() {
+        boolean advanced = false;
+
+        while (!barrierInFlight && writeEpoch < submitEpoch
+                && !unfinishedWrites.containsKey(writeEpoch)) {
+            if (unforcedWrites) {
+                barrierInFlight = true;
+                forceWanted = true;
+                workAvailable.release();
+                break;
             }
+            writeEpoch++;
+            advanced = true;
+        }
+        if (advanced) {
+            releaseBlockedWrites();
+        }
+    }
 
-            //
-            // Pull a random-ish item off the list. Use random
-            // to test non-fifo list...
-            //
-            // Note
-            //  -- if first item is barrier, remove it
-            //  -- writes cannot pass barrier -- if random item selected is a write past
-            //     a barrier, then just take first item on list
-            //  -- reads can pass barrier
-            //
+    //-------------------------------------------------------
+    // releaseBlockedWrites -- make runnable the held writes
+    // whose epoch has been reached. Caller holds lock.
+    //-------------------------------------------------------
+    private void releaseBlockedWrites() {
+        Iterator<DiskResult> it = blockedWrites.iterator();
+        while (it.hasNext()) {
+            DiskResult dr = it.next();
+            if (dr.getEpoch() <= writeEpoch) {
+                it.remove();
+                schedule(dr);
+            }
+        }
+    }
 
-            //
-            // Remove any barriers at front of list
-            //
-            while (pending.getFirst().getOperation() == BARRIER) {
-                pending.removeFirst();
-            }
-
-            skip = 0;
-            if (pending.size() > 1) {
-                skip = rand.nextInt(pending.size() - 1);
-            }
-            dr = pending.get(skip);
-
-            // Reads can pass barrier
-            if (dr.getOperation() == READ) {
-                dr = pending.remove(skip);
-            } // BARRIER is no-op; just work on first request instead
-            else if (dr.getOperation() == BARRIER) {
-                dr = pending.removeFirst();
-            } // Write cannot pass barrier; If skip takes us to a write past the barrier,
-            // work on first request instead.
-            else {
-                assert (dr.getOperation() == WRITE);
-
-                ListIterator<DiskResult> li = pending.listIterator(0);
-                while (li.nextIndex() <= skip) {
-                    if (!li.hasNext() || ((DiskResult) (li.next())).getOperation() == BARRIER) {
-                        skip = 0;
-                        break;
-                    }
+    //-------------------------------------------------------
+    // addUnfinishedWrites -- count writes per epoch. An
+    // epoch with no unfinished writes has no entry.
+    // Caller holds lock.
+    //-------------------------------------------------------
+    private void addUnfinishedWrites(int epoch, int delta) {
+        Integer count = unfinishedWrites.get(epoch);
+        int newCount = (count == null ? 0 : count) + delta;
+        assert (newCount >= 0);
+        if (newCount == 0) {
+            unfinishedWrites.remove(epoch);
+        } else {
+            unfinishedWrites.put(epoch, newCount);
+        }
+    }
+
+    //-------------------------------------------------------
+    // failPending -- the disk is dead; report every request
+    // that will never be served as a FAKE_ERROR, through the
+    // callback as well as the future, so that callers
+    // tracking in-progress sectors are released. Requests
+    // already with a worker are reported here too; the
+    // worker skips them (see DiskResult.settle). Caller
+    // holds lock.
+    //-------------------------------------------------------
+    private void failPending() {
+        drainSubmitted();
+        for (LinkedList<DiskResult> sq : sectorQueues.values()) {
+            for (DiskResult dr : sq) {
+                if (!dr.settle()) {
+                    continue; // Multi-sector request seen before
+                }
+                dr.setStatus(DiskResult.FAKE_ERROR);
+                callback.requestDone(dr);
+                if (dr.getFuture() != null) {
+                    dr.getFuture().completeExceptionally(new IOException("Disk is dead"));
                 }
-                dr = pending.remove(skip);
             }
-            assert (dr.getOperation() == WRITE || dr.getOperation() == READ);
-            return dr;
-        } finally {
-            lock.unlock();
         }
     }
 
+    //-------------------------------------------------------
+    // isDead -- true once the disk has failed; every later
+    // request is refused.
+    //-------------------------------------------------------
+    public boolean isDead() {
+        return diskIsDead;
+    }
+
     //-------------------------------------------------------
     // randomlyKillDisk -- flip a coin. If heads, then
     // set diskIsDead and signal all threads. No new
@@ -228,7 +674,7 @@ public class Disk {
         if (coin > 1.0 - failureProb) {
             System.out.println("Killing disk: " + coin + " failureProb " + failureProb);
             diskIsDead = true;
-            workReady.signalAll();
+            workAvailable.release(nWorkers);
         }
         return;
     }
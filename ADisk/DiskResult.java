@@ -9,6 +9,8 @@
  * (C) 2007,2010 Mike Dahlin
  *
  */
+import java.util.concurrent.CompletableFuture;
+
 public class DiskResult{
   public static final int INPROGRESS = 34234;
   public static final int OK = 9083;
@@ -21,16 +23,29 @@ public class DiskResult{
 
   private byte buf[];
   private int secNum;
+  private int nSectors;
   private int operation;
+  private int epoch; // Barrier epoch the request was started in
+  private long readyTime; // When the request became runnable (nanoTime)
+  private int blockers; // Covered sectors where an earlier request is unfinished
+  private DiskResult nextCoalesced; // Served with this one in a single I/O
+  private CompletableFuture<DiskResult> future; // Set by Disk.submit()
+  private boolean settled; // Callback and future already delivered
 
   //-------------------------------------------------------
   // DiskResult
   //-------------------------------------------------------
   public DiskResult(int operation, int tag, int sectorNum, byte b[])
+  {
+    this(operation, tag, sectorNum, 1, b);
+  }
+
+  public DiskResult(int operation, int tag, int sectorNum, int nSectors, byte b[])
   {
     this.operation = operation;
     this.tag = tag;
     this.secNum = sectorNum;
+    this.nSectors = nSectors;
     this.buf = b;
     this.status = INPROGRESS;
   }
@@ -44,6 +59,9 @@ public class DiskResult{
   public int getSectorNum(){
     return secNum;
   }
+  public int getNSectors(){
+    return nSectors;
+  }
   public byte[] getBuf(){
     return buf;
   }
@@ -60,8 +78,51 @@ public class DiskResult{
   public int getTag(){
     return tag;
   }
+  public int getEpoch(){
+    return epoch;
+  }
+  public void setEpoch(int epoch){
+    this.epoch = epoch;
+  }
+  public long getReadyTime(){
+    return readyTime;
+  }
+  public void setReadyTime(long readyTime){
+    this.readyTime = readyTime;
+  }
+  public int getBlockers(){
+    return blockers;
+  }
+  public void setBlockers(int blockers){
+    this.blockers = blockers;
+  }
+  public DiskResult getNextCoalesced(){
+    return nextCoalesced;
+  }
+  public void setNextCoalesced(DiskResult next){
+    this.nextCoalesced = next;
+  }
+  public CompletableFuture<DiskResult> getFuture(){
+    return future;
+  }
+  public void setFuture(CompletableFuture<DiskResult> future){
+    this.future = future;
+  }
+
+  //-------------------------------------------------------
+  // settle -- claim the right to report this request's
+  // outcome. Returns true for exactly one caller, so a
+  // worker and a dying disk never both deliver it.
+  //-------------------------------------------------------
+  public synchronized boolean settle(){
+    if(settled){
+      return false;
+    }
+    settled = true;
+    return true;
+  }
 
   public String toString(){
-      return "(DiskResult)(operation: " + operation + " tag: " + tag + " secNum: " + secNum + " status: " + status + ")";
+      return "(DiskResult)(operation: " + operation + " tag: " + tag + " secNum: " + secNum + " nSectors: " + nSectors + " status: " + status + ")";
   }
 }
@@ -0,0 +1,19 @@
+/*
+ * DiskScheduler.java
+ *
+ * Policy that picks which runnable request a DiskWorker
+ * serves next. Disk only adds requests that are safe to
+ * start (barriers and per-sector order already satisfied),
+ * so at most one request per sector is held at a time.
+ * Disk calls these methods with its lock held.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+public interface DiskScheduler{
+  public void add(DiskResult dr);
+  public DiskResult next(); // Remove and return; null if empty
+  public void remove(DiskResult dr); // Taken out of turn (coalesced)
+  public boolean isEmpty();
+}
@@ -0,0 +1,28 @@
+/*
+ * DiskStore.java
+ *
+ * Where a Disk keeps its sectors. DiskWorkers call
+ * read/write concurrently, each on its own range of
+ * nSectors contiguous sectors held back to back in b.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.io.IOException;
+
+public interface DiskStore{
+  public void read(int sectorNum, int nSectors, byte b[]) throws IOException;
+  public void write(int sectorNum, int nSectors, byte b[]) throws IOException;
+
+  //
+  // Make every write that has completed so far durable.
+  //
+  public void force() throws IOException;
+
+  //
+  // Make every sector read as zeros, cheaply and durably.
+  // No reads or writes may be in progress.
+  //
+  public void wipe() throws IOException;
+}
@@ -10,11 +10,15 @@
  *
  */
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.List;
 import java.io.FileNotFoundException;
 
 public class DiskUnit implements DiskCallback{
 
   private static final int NUM = 100;
+  private static final int RANGE = 10;
 
   boolean anyHaveError;
   private static final int INPROGRESS = 234;
@@ -27,9 +31,14 @@ public class DiskUnit implements DiskCallback{
 
   int status[];
   int doneCount;
+  int expected; // Callbacks check() waits for
 
   int barrierPlace = -1;
 
+  // Scheduling policies main() runs every test under
+  private static final String POLICIES[] = { "C-SCAN", "Deadline", "FIFO", "Random" };
+  private static int policy;
+
   SimpleLock lock;
   Condition resultAvailable;
 
@@ -38,7 +47,22 @@ public class DiskUnit implements DiskCallback{
   //-------------------------------------------------------
   public static void main(String args[])
   {
+    //
+    // Each policy the Disk can run, the default (C-SCAN)
+    // first. Random order also shakes out FIFO assumptions.
+    //
+    for(policy = 0; policy < POLICIES.length; policy++){
+      System.out.println("Scheduler: " + POLICIES[policy]);
+      testAll();
+    }
+	  System.exit(0);
+  }
 
+  //-------------------------------------------------------
+  // testAll() -- every test, with the current policy
+  //-------------------------------------------------------
+  private static void testAll()
+  {
     testWrites(true, (float)0.0, -1);
     System.out.println("Wrote 0 to all");
     testWrites(true, (float)0.0, 50);
@@ -57,7 +81,29 @@ public class DiskUnit implements DiskCallback{
     System.out.println("Wrote data to some");
     testReads(false, -1);    
     System.out.println("Read data from some");
-	  System.exit(0);
+    testRangeWrites();
+    System.out.println("Wrote data to all in ranges");
+    testReads(true, -1);
+    System.out.println("Read data from all");
+    testSubmitReads();
+    System.out.println("Read data from all with futures");
+  }
+
+  //-------------------------------------------------------
+  // newScheduler() -- a scheduler for the current policy
+  //-------------------------------------------------------
+  private static DiskScheduler newScheduler()
+  {
+    switch(policy){
+    case 0:
+      return new CScanScheduler();
+    case 1:
+      return new DeadlineScheduler();
+    case 2:
+      return new FifoScheduler();
+    default:
+      return new RandomScheduler();
+    }
   }
 
 
@@ -78,6 +124,7 @@ public class DiskUnit implements DiskCallback{
     du = new DiskUnit(barrierWhere);
     try{
       d = new Disk(du);
+      d.setScheduler(newScheduler());
     }
     catch(FileNotFoundException fnf){
       System.out.println("Unable to open disk file");
@@ -131,6 +178,51 @@ public class DiskUnit implements DiskCallback{
     }
   }
 
+  //-------------------------------------------------------
+  // Write the same data as testWrites(false, ...) but with
+  // multi-sector requests of RANGE sectors each
+  //-------------------------------------------------------
+  private static void testRangeWrites()
+  {
+    DiskUnit du;
+    Disk d = null;
+    int ii;
+    int ok;
+
+    du = new DiskUnit(-1);
+    du.expected = NUM / RANGE;
+    try{
+      d = new Disk(du);
+      d.setScheduler(newScheduler());
+    }
+    catch(FileNotFoundException fnf){
+      System.out.println("Unable to open disk file");
+      System.exit(-1);
+    }
+    du.doClear();
+    for(ii = 0; ii < NUM; ii += RANGE){
+      byte b[] = new byte[RANGE * Disk.SECTOR_SIZE];
+      for(int jj = 0; jj < RANGE; jj++){
+        for(int kk = 0; kk < Disk.SECTOR_SIZE; kk++){
+          b[jj * Disk.SECTOR_SIZE + kk] = (byte)(ii + jj);
+        }
+      }
+      try{
+        d.startRequest(Disk.WRITE, ii, ii, RANGE, b);
+      }
+      catch(Exception e){
+        System.out.println("Unexpected exception in startReq range write " 
+                           + e.toString() + " ii=" + ii);
+        System.exit(-1);
+      }
+    }
+    ok = du.check();
+    if(ok < du.expected){
+      System.out.println("Fewer range writes than expected " + ok);
+      System.exit(-1);
+    }
+  }
+
   //-------------------------------------------------------
   // Issue a one read to each of a bunch of disk sectors
   //-------------------------------------------------------
@@ -147,6 +239,7 @@ public class DiskUnit implements DiskCallback{
     du = new DiskUnit(barrierWhere);
     try{
       d = new Disk(du);
+      d.setScheduler(newScheduler());
     }
     catch(FileNotFoundException fnf){
       System.out.println("Unable to open disk file");
@@ -191,6 +284,46 @@ public class DiskUnit implements DiskCallback{
     return;
   }
 
+  //-------------------------------------------------------
+  // Read every sector with Disk.submit() and check the
+  // data once each future completes
+  //-------------------------------------------------------
+  private static void testSubmitReads()
+  {
+    DiskUnit du;
+    Disk d = null;
+    int ii;
+
+    du = new DiskUnit(-1);
+    try{
+      d = new Disk(du);
+      d.setScheduler(newScheduler());
+    }
+    catch(FileNotFoundException fnf){
+      System.out.println("Unable to open disk file");
+      System.exit(-1);
+    }
+    du.doClear();
+    List<CompletableFuture<DiskResult>> futures =
+      new ArrayList<CompletableFuture<DiskResult>>(NUM);
+    try{
+      for(ii = 0; ii < NUM; ii++){
+        futures.add(d.submit(Disk.READ, ii, ii, new byte[Disk.SECTOR_SIZE]));
+      }
+      for(ii = 0; ii < NUM; ii++){
+        DiskResult r = futures.get(ii).get();
+        if(r.getStatus() != DiskResult.OK || !checkOK(r)){
+          System.out.println("Bad data from submitted read " + r.toString());
+          System.exit(-1);
+        }
+      }
+    }
+    catch(Exception e){
+      System.out.println("Unexpected exception in submit read " + e.toString());
+      System.exit(-1);
+    }
+  }
+
   //-------------------------------------------------------
   // set Disk.SECTOR_SIZE bytes to specified value
   //-------------------------------------------------------
@@ -209,6 +342,7 @@ public class DiskUnit implements DiskCallback{
   private DiskUnit(int barrierWhere)
   {
     status = new int[NUM];
+    expected = NUM;
     this.lock = new SimpleLock();
     this.resultAvailable = lock.newCondition();
     this.barrierPlace = barrierWhere;
@@ -241,7 +375,7 @@ public class DiskUnit implements DiskCallback{
   {
     try{
       lock.lock();
-      while(!anyHaveError && doneCount < NUM){
+      while(!anyHaveError && doneCount < expected){
         resultAvailable.awaitUninterruptibly();
       }
       return doneCount;
@@ -292,7 +426,7 @@ public class DiskUnit implements DiskCallback{
           if(checkOK(result)){
             doneCount++;
             status[sec] = DONE_OK;
-            if(doneCount == NUM){
+            if(doneCount == expected){
               resultAvailable.signal();
             }
             return;
@@ -9,22 +9,21 @@
  * (C) 2007,2010 Mike Dahlin
  *
  */
-import java.io.RandomAccessFile;
 import java.io.IOException;
 
 public class DiskWorker extends Thread{
-  RandomAccessFile file;
+  DiskStore store;
   Disk disk;
   DiskCallback callback;
   
   //-------------------------------------------------------
   // DiskWorker
   //-------------------------------------------------------
-  public DiskWorker(Disk disk, RandomAccessFile file, 
+  public DiskWorker(Disk disk, DiskStore store, 
                     DiskCallback callback)
   {
     this.disk = disk;
-    this.file = file;
+    this.store = store;
     this.callback = callback;
   }
 
@@ -48,24 +47,114 @@ public class DiskWorker extends Thread{
         callback.requestDone(req);
         return; // Stop working on requests. Thread exit.
       }
+      if(req == null){
+        return; // Another worker reported the failure. Thread exit.
+      }
+
+      if(req.getOperation() == Disk.BARRIER){
+        //
+        // Internal request: no callback, nobody to report to.
+        //
+        try{
+          store.force();
+        }
+        catch(IOException e){
+          e.printStackTrace();
+          disk.forceFailed();
+        }
+        disk.workDone(req);
+        continue;
+      }
 
       assert(req.getOperation() == Disk.READ || req.getOperation() == Disk.WRITE);
 
+      int status;
       try{
-        file.seek(req.getSectorNum() * Disk.SECTOR_SIZE);
-        if(req.getOperation() == Disk.READ){
-          file.read(req.getBuf(), 0, Disk.SECTOR_SIZE);
+        doIO(req);
+        status = DiskResult.OK;
+      }
+      catch(IOException e){
+        status = DiskResult.REAL_ERROR;
+      }
+      //
+      // Callbacks (and futures) before workDone() so that a
+      // write's completion is always reported before any write
+      // behind a later barrier is started.
+      //
+      for(DiskResult r = req; r != null; r = r.getNextCoalesced()){
+        if(!r.settle()){
+          continue; // Already failed by a dying disk
         }
-        else{
-          file.write(req.getBuf(), 0, Disk.SECTOR_SIZE);
+        r.setStatus(status);
+        callback.requestDone(r);
+        if(r.getFuture() != null){
+          if(status == DiskResult.OK){
+            r.getFuture().complete(r);
+          }
+          else{
+            r.getFuture().completeExceptionally(new IOException("Disk I/O error on " + r));
+          }
         }
-        req.setStatus(DiskResult.OK);
       }
-      catch(IOException e){
-        req.setStatus(DiskResult.REAL_ERROR);
+      while(req != null){
+        DiskResult next = req.getNextCoalesced();
+        req.setNextCoalesced(null);
+        disk.workDone(req);
+        req = next;
       }
-      callback.requestDone(req);
     }
   }
-  
+
+  //-------------------------------------------------------
+  // doIO -- serve req and any requests coalesced onto it
+  // with one positioned read or write.
+  //-------------------------------------------------------
+  private void doIO(DiskResult req)
+    throws IOException
+  {
+    boolean isRead = (req.getOperation() == Disk.READ);
+
+    if(req.getNextCoalesced() == null){
+      if(isRead){
+        store.read(req.getSectorNum(), req.getNSectors(), req.getBuf());
+      }
+      else{
+        store.write(req.getSectorNum(), req.getNSectors(), req.getBuf());
+      }
+      return;
+    }
+
+    int total = 0;
+    for(DiskResult r = req; r != null; r = r.getNextCoalesced()){
+      total += r.getNSectors();
+    }
+    byte big[] = new byte[total * Disk.SECTOR_SIZE];
+    if(!isRead){
+      gather(req, big, true);
+      store.write(req.getSectorNum(), total, big);
+    }
+    else{
+      store.read(req.getSectorNum(), total, big);
+      gather(req, big, false);
+    }
+  }
+
+  //-------------------------------------------------------
+  // gather -- copy each chained request's buffer into
+  // (toBig) or out of its slice of big.
+  //-------------------------------------------------------
+  private static void gather(DiskResult req, byte big[], boolean toBig)
+  {
+    int off = 0;
+    for(DiskResult r = req; r != null; r = r.getNextCoalesced()){
+      int len = r.getNSectors() * Disk.SECTOR_SIZE;
+      if(toBig){
+        System.arraycopy(r.getBuf(), 0, big, off, len);
+      }
+      else{
+        System.arraycopy(big, off, r.getBuf(), 0, len);
+      }
+      off += len;
+    }
+  }
 }
@@ -0,0 +1,46 @@
+/*
+ * FifoScheduler.java
+ *
+ * Serve requests in the order they became runnable.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+public class FifoScheduler implements DiskScheduler{
+  private LinkedHashSet<DiskResult> queue;
+
+  public FifoScheduler()
+  {
+    queue = new LinkedHashSet<DiskResult>();
+  }
+
+  public void add(DiskResult dr)
+  {
+    queue.add(dr);
+  }
+
+  public DiskResult next()
+  {
+    Iterator<DiskResult> it = queue.iterator();
+    if(!it.hasNext()){
+      return null;
+    }
+    DiskResult dr = it.next();
+    it.remove();
+    return dr;
+  }
+
+  public void remove(DiskResult dr)
+  {
+    queue.remove(dr);
+  }
+
+  public boolean isEmpty()
+  {
+    return queue.isEmpty();
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * FileDiskStore.java
+ *
+ * DiskStore on a RandomAccessFile. Opened "rws", every
+ * sector write is synchronous and force() has nothing
+ * left to do. Opened "rw", writes go to the OS cache and
+ * only force() makes them durable.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FileDiskStore implements DiskStore{
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private boolean syncEachWrite;
+
+  //-------------------------------------------------------
+  // FileDiskStore
+  //-------------------------------------------------------
+  public FileDiskStore(String path, boolean syncEachWrite)
+    throws FileNotFoundException
+  {
+    this.syncEachWrite = syncEachWrite;
+    this.file = new RandomAccessFile(path, syncEachWrite ? "rws" : "rw");
+    //
+    // Several workers share the file, so use positioned
+    // channel I/O rather than seek() + read()/write().
+    //
+    this.channel = file.getChannel();
+  }
+
+  //-------------------------------------------------------
+  // read -- past end of file, leave rest of buffer alone
+  //-------------------------------------------------------
+  public void read(int sectorNum, int nSectors, byte b[])
+    throws IOException
+  {
+    ByteBuffer bb = ByteBuffer.wrap(b, 0, nSectors * Disk.SECTOR_SIZE);
+    long pos = (long)sectorNum * Disk.SECTOR_SIZE;
+    while(bb.hasRemaining()){
+      if(channel.read(bb, pos + bb.position()) < 0){
+        break;
+      }
+    }
+  }
+
+  //-------------------------------------------------------
+  // write
+  //-------------------------------------------------------
+  public void write(int sectorNum, int nSectors, byte b[])
+    throws IOException
+  {
+    ByteBuffer bb = ByteBuffer.wrap(b, 0, nSectors * Disk.SECTOR_SIZE);
+    long pos = (long)sectorNum * Disk.SECTOR_SIZE;
+    while(bb.hasRemaining()){
+      channel.write(bb, pos + bb.position());
+    }
+  }
+
+  //-------------------------------------------------------
+  // wipe -- drop the file's contents and grow it back to
+  // the full disk size; the file system leaves the space
+  // unallocated and reads return zeros
+  //-------------------------------------------------------
+  public void wipe()
+    throws IOException
+  {
+    channel.truncate(0);
+    file.setLength((long)Disk.NUM_OF_SECTORS * Disk.SECTOR_SIZE);
+    channel.force(true);
+  }
+
+  //-------------------------------------------------------
+  // force -- "rws" already synced each write
+  //-------------------------------------------------------
+  public void force()
+    throws IOException
+  {
+    if(!syncEachWrite){
+      channel.force(false);
+    }
+  }
+}
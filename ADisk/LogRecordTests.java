@@ -0,0 +1,287 @@
+/*
+ * LogRecordTests.java
+ *
+ * Tests of the redo log: the record format, torn records
+ * and recovery after a crash.
+ *
+ * java LogRecordTests to run. A crash is a second JVM
+ * (java LogRecordTests <phase>) that halts without
+ * shutting anything down.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogRecordTests {
+
+	private static final int FIRST_SECTOR = ADisk.REDO_LOG_SECTORS + 1;
+	private static final int COMMIT_SECTOR = ADisk.REDO_LOG_SECTORS + 2000;
+	private static final int N_COMMITS = 20;
+	private static final int STALE_SECTOR = ADisk.REDO_LOG_SECTORS + 3000;
+	private static final int GOOD_SECTOR = ADisk.REDO_LOG_SECTORS + 3001;
+
+	//-------------------------------------------------------
+	// main() -- java LogRecordTests to run this test
+	//-------------------------------------------------------
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			crashPhase(args);
+			return;
+		}
+
+		//----------------------------------------------------------
+		//log record format
+		//----------------------------------------------------------
+		testRoundTrip(0, 1);
+		testRoundTrip(123, 1);
+		testRoundTrip(124, 2); //sector list spills into a second header sector
+		testRoundTrip(125, 2);
+		testRoundTrip(5000, 40);
+		System.out.println("Record round trip OK");
+		testTornRecord();
+		System.out.println("Torn record OK");
+
+		//----------------------------------------------------------
+		//recovery
+		//----------------------------------------------------------
+		testRecovery();
+		System.out.println("Recovery OK");
+		testStaleRecord();
+		System.out.println("Stale record past head OK");
+		testLogSize(64);
+		testLogSize(ADisk.MAX_REDO_LOG_SECTORS);
+		System.out.println("Recovery with other log sizes OK");
+
+		System.out.println("All log record tests OK");
+		System.exit(0);
+	}
+
+	//
+	// Write a record with nUpdates sectors, read it back
+	// with parseHeader/parseLogBytes, and check every field
+	//
+	private static void testRoundTrip(int nUpdates, int nHeaderSectors) {
+		Transaction t = new Transaction(new TransID());
+		for (int k = 0; k < nUpdates; k++) {
+			t.addWrite(FIRST_SECTOR + k, pattern(k));
+		}
+		t.logSeq = 77;
+		ArrayList<byte[]> record = t.getSectorsForLog();
+		check(record.size() == nHeaderSectors + nUpdates,
+				nUpdates + " updates: " + record.size() + " log sectors");
+		check(t.getNLogSectors() == record.size(),
+				nUpdates + " updates: getNLogSectors " + t.getNLogSectors());
+		check(Transaction.parseHeader(record.get(0)) == record.size(),
+				nUpdates + " updates: parseHeader " + Transaction.parseHeader(record.get(0)));
+		check(Transaction.parseSeq(record.get(0)) == 77,
+				nUpdates + " updates: parseSeq " + Transaction.parseSeq(record.get(0)));
+
+		Transaction back = Transaction.parseLogBytes(concat(record));
+		check(back != null, nUpdates + " updates: record did not parse");
+		check(back.getNUpdatedSectors() == nUpdates,
+				nUpdates + " updates: parsed " + back.getNUpdatedSectors());
+		check(back.logSeq == 77, nUpdates + " updates: parsed seq " + back.logSeq);
+		check(back.tid.equals(t.tid), nUpdates + " updates: parsed tid " + back.tid);
+		for (int k = 0; k < nUpdates; k++) {
+			check(back.getSectorI(k) == FIRST_SECTOR + k,
+					nUpdates + " updates: update " + k + " is sector " + back.getSectorI(k));
+			check(sameData(back.getDataI(k), pattern(k)),
+					nUpdates + " updates: update " + k + " has the wrong data");
+		}
+		t.release();
+	}
+
+	//
+	// A record with any byte changed, or cut short, is not
+	// a record
+	//
+	private static void testTornRecord() {
+		Transaction t = new Transaction(new TransID());
+		for (int k = 0; k < 200; k++) {
+			t.addWrite(FIRST_SECTOR + k, pattern(k));
+		}
+		t.logSeq = 5;
+		byte[] bytes = concat(t.getSectorsForLog());
+		int nSectors = bytes.length / Disk.SECTOR_SIZE;
+
+		int[] flips = { 2, 6, 30, Disk.SECTOR_SIZE + 4, 2 * Disk.SECTOR_SIZE + 9, bytes.length - 1 };
+		for (int i : flips) {
+			bytes[i] ^= 0x40;
+			check(Transaction.parseLogBytes(bytes) == null, "flipped byte " + i + " parsed");
+			bytes[i] ^= 0x40;
+		}
+		check(Transaction.parseLogBytes(bytes) != null, "restored record did not parse");
+
+		byte[] shortRecord = new byte[(nSectors - 1) * Disk.SECTOR_SIZE];
+		System.arraycopy(bytes, 0, shortRecord, 0, shortRecord.length);
+		check(Transaction.parseLogBytes(shortRecord) == null, "short record parsed");
+		check(Transaction.parseHeader(new byte[Disk.SECTOR_SIZE]) == -1, "zero sector is a header");
+		t.release();
+	}
+
+	//
+	// Commit, crash before writeback, recover: every commit
+	// is there and a sector written by many holds the last
+	//
+	private static void testRecovery() throws IOException {
+		crash("commit");
+		ADisk d = new ADisk(false);
+		System.out.println("Recovered " + d.getRecoveredTransactions() + " transactions");
+		TransID tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int i = 1; i <= N_COMMITS; i++) {
+			d.readSector(tid, COMMIT_SECTOR + i, b);
+			check(sameData(b, pattern(i)), "commit " + i + " lost in recovery");
+		}
+		d.readSector(tid, COMMIT_SECTOR, b);
+		check(sameData(b, pattern(N_COMMITS)), "sector written by every commit is not the last");
+		d.abortTransaction(tid);
+	}
+
+	//
+	// A crash leaves a torn record and a complete later one
+	// behind it. The next record after recovery ends right
+	// where the stale one starts; after a second crash the
+	// stale one must not be replayed.
+	//
+	private static void testStaleRecord() throws IOException {
+		crash("torn");
+		crash("again");
+		ADisk d = new ADisk(false);
+		TransID tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		d.readSector(tid, GOOD_SECTOR, b);
+		check(sameData(b, pattern(1)), "commit after recovery lost");
+		d.readSector(tid, STALE_SECTOR, b);
+		check(sameData(b, new byte[Disk.SECTOR_SIZE]), "stale record past the head was replayed");
+		d.abortTransaction(tid);
+	}
+
+	//
+	// Format with a log of logSectors, commit to the first
+	// and last data sectors, crash, recover: the log size
+	// comes back from sector 0 and so does every data
+	// sector number
+	//
+	private static void testLogSize(int logSectors) throws IOException {
+		crash("sized", Integer.toString(logSectors));
+		ADisk d = new ADisk(false);
+		check(d.logStatus.getLogSectors() == logSectors,
+				"log of " + logSectors + " recovered as " + d.logStatus.getLogSectors());
+		check(d.getNSectors() == Disk.NUM_OF_SECTORS - logSectors - 1,
+				"log of " + logSectors + ": " + d.getNSectors() + " data sectors");
+		int last = ADisk.REDO_LOG_SECTORS + d.getNSectors();
+		TransID tid = d.beginTransaction();
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		d.readSector(tid, ADisk.FIRST_SECTOR_NUM, b);
+		check(sameData(b, pattern(1)), "log of " + logSectors + ": first sector lost");
+		d.readSector(tid, last, b);
+		check(sameData(b, pattern(2)), "log of " + logSectors + ": last sector lost");
+		try {
+			d.readSector(tid, last + 1, b);
+			fail("log of " + logSectors + ": read past the last sector");
+		} catch (IndexOutOfBoundsException e) {
+			//expected
+		}
+		d.abortTransaction(tid);
+	}
+
+	//
+	// Run phase in a new JVM, which halts at the end of it
+	//
+	private static void crash(String... phase) throws IOException {
+		String java = System.getProperty("java.home") + "/bin/java";
+		List<String> command = new ArrayList<String>(Arrays.asList(java, "-ea", "-cp",
+				System.getProperty("java.class.path"), "LogRecordTests"));
+		command.addAll(Arrays.asList(phase));
+		ProcessBuilder pb = new ProcessBuilder(command);
+		pb.inheritIO();
+		try {
+			int rc = pb.start().waitFor();
+			check(rc == 0, "crash phase " + phase[0] + " exited with " + rc);
+		} catch (InterruptedException e) {
+			fail("interrupted waiting for crash phase " + phase[0]);
+		}
+	}
+
+	private static void crashPhase(String[] args) throws Exception {
+		String phase = args[0];
+		if (phase.equals("commit")) {
+			ADisk d = new ADisk(true);
+			for (int i = 1; i <= N_COMMITS; i++) {
+				TransID tid = d.beginTransaction();
+				d.writeSector(tid, COMMIT_SECTOR + i, pattern(i));
+				d.writeSector(tid, COMMIT_SECTOR, pattern(i));
+				d.commitTransaction(tid);
+			}
+		} else if (phase.equals("torn")) {
+			//Log sector 1: the torn first record. Sector 3: a
+			//complete record numbered 2, as if it were the
+			//second of the batch
+			ADisk d = new ADisk(true);
+			ADisk.waitFor(d.write(ADisk.LOG_TAG, 1, new byte[Disk.SECTOR_SIZE]));
+			Transaction t = new Transaction(new TransID());
+			t.addWrite(STALE_SECTOR, pattern(2));
+			t.logSeq = 2;
+			ArrayList<byte[]> record = t.getSectorsForLog();
+			for (int k = 0; k < record.size(); k++) {
+				ADisk.waitFor(d.write(ADisk.LOG_TAG, 3 + k, record.get(k)));
+			}
+			d.disk.flush();
+		} else if (phase.equals("again")) {
+			//One update: a header and a data sector, so it ends
+			//at log sector 3
+			ADisk d = new ADisk(false);
+			TransID tid = d.beginTransaction();
+			d.writeSector(tid, GOOD_SECTOR, pattern(1));
+			d.commitTransaction(tid);
+		} else if (phase.equals("sized")) {
+			ADisk d = new ADisk(true, Integer.parseInt(args[1]));
+			TransID tid = d.beginTransaction();
+			d.writeSector(tid, ADisk.FIRST_SECTOR_NUM, pattern(1));
+			d.writeSector(tid, ADisk.REDO_LOG_SECTORS + d.getNSectors(), pattern(2));
+			d.commitTransaction(tid);
+		} else {
+			fail("unknown crash phase " + phase);
+		}
+		Runtime.getRuntime().halt(0);
+	}
+
+	//-------------------------------------------------------
+	// helpers
+	//-------------------------------------------------------
+	private static byte[] pattern(int k) {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) (k * 31 + i + 1);
+		}
+		return b;
+	}
+
+	private static byte[] concat(ArrayList<byte[]> sectors) {
+		byte[] bytes = new byte[sectors.size() * Disk.SECTOR_SIZE];
+		for (int k = 0; k < sectors.size(); k++) {
+			System.arraycopy(sectors.get(k), 0, bytes, k * Disk.SECTOR_SIZE, Disk.SECTOR_SIZE);
+		}
+		return bytes;
+	}
+
+	private static boolean sameData(byte[] a, byte[] b) {
+		return Arrays.equals(a, b);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			fail(what);
+	}
+
+	private static void fail(String what) {
+		System.out.println("FAILED: " + what);
+		System.exit(-1);
+	}
+}
@@ -1,6 +1,9 @@
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 
 /*
  * LogStatus.java
@@ -21,46 +24,204 @@ public class LogStatus{
 	public static final int INPROGRESS = 34234;
 	public static final int OK = 9083;
 
+	//-------------------------------------------------------
+	// Log occupancy (fraction of REDO_LOG_SECTORS in use)
+	// below which writeback holds off, and above which it
+	// runs flat out
+	//-------------------------------------------------------
+	public static final double LOW_WATERMARK = 0.25;
+	public static final double HIGH_WATERMARK = 0.75;
+
 	private SimpleLock lock;
 	private ADisk ad;
 	private int head;
 	private int tail;
+	private int logSectors; //log is sectors 1 to logSectors
 	private int checkpoint;
+	private int nextSeq; //sequence number of the next record appended at head
+	private int tailSeq; //sequence number of the record at tail
+	
+	//Log space: sectors from tail to head, reserved or written
+	private int usedSectors;
+	private int peakUsedSectors;
+	private long reserveWaits; //reservations that had to wait for space
+	private Condition spaceFreed;
+	private Condition logGrew;
+	private IOException writeBackFailure; //once set, no space will be freed
 	
 	public int useStatus;
 	
 	int[] log;
 	
-	public LogStatus(ADisk adisk){
+	public LogStatus(ADisk adisk, int logSectors){
 		log = new int[Disk.ADISK_REDO_LOG_SECTORS];
 		for (int i : log){
 			log[i] = OK;
 		}
+		this.logSectors = logSectors;
 		this.head = 1;
 		this.tail = 1;
 		this.checkpoint = 1;
+		this.nextSeq = 1;
+		this.tailSeq = 1;
 		this.useStatus = OK;
 		this.ad = adisk;
 		this.lock = new SimpleLock();
+		this.usedSectors = 0;
+		this.peakUsedSectors = 0;
+		this.reserveWaits = 0;
+		this.spaceFreed = lock.newCondition();
+		this.logGrew = lock.newCondition();
+		this.writeBackFailure = null;
 	}
 	
     // 
     // Return the index of the log sector where
-    // the next transaction should go.
+    // the next transaction should go. Blocks until
+    // writeback has freed enough of the log (this is
+    // the backpressure on committers). Throws once
+    // writeback has failed or the disk has died, since
+    // then it never will.
     //
-    public int reserveLogSectors(int nSectors)
+    public int reserveLogSectors(int nSectors) throws IOException
     {
-        return head;
+    	try
+    	{
+    		lock.lock();
+    		if(nSectors > logSectors)
+    			throw new IOException("Log is full: " + nSectors + " sectors will never fit");
+    		if(usedSectors + nSectors > logSectors)
+    			reserveWaits++;
+    		while(usedSectors + nSectors > logSectors)
+    		{
+    			if(writeBackFailure != null)
+    				throw new IOException("Log is full and writeback failed", writeBackFailure);
+    			if(ad.disk.isDead())
+    				throw new IOException("Log is full and disk is dead");
+    			spaceFreed.awaitUninterruptibly();
+    		}
+    		usedSectors += nSectors;
+    		peakUsedSectors = Math.max(peakUsedSectors, usedSectors);
+    		return head;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    //
+    // Writeback stopped on an error (e.g. the disk died):
+    // the log will not drain any more, so release the
+    // committers waiting for space.
+    //
+    public void writeBackFailed(Exception cause)
+    {
+    	try
+    	{
+    		lock.lock();
+    		if(writeBackFailure == null)
+    			writeBackFailure = new IOException("Writeback failed", cause);
+    		spaceFreed.signalAll();
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
     }
 
     //
     // The write back for the specified range of
     // sectors is done. These sectors may be safely 
     // reused for future transactions. (Circular log)
+    // Returns the number of free log sectors.
     //
     public int writeBackDone(int startSector, int nSectors)
     {
-        return -1;
+    	try
+    	{
+    		lock.lock();
+    		usedSectors -= nSectors;
+    		assert(usedSectors >= 0);
+    		spaceFreed.signalAll();
+    		return logSectors - usedSectors;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    //
+    // Log space in use and how full the log is
+    // (0.0 empty, 1.0 full)
+    //
+    public int getUsedSectors()
+    {
+    	try
+    	{
+    		lock.lock();
+    		return usedSectors;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    public double getOccupancy()
+    {
+    	return (double)getUsedSectors() / logSectors;
+    }
+
+    public int getPeakUsedSectors()
+    {
+    	try
+    	{
+    		lock.lock();
+    		return peakUsedSectors;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    public long getReserveWaits()
+    {
+    	try
+    	{
+    		lock.lock();
+    		return reserveWaits;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    //
+    // Wait until the log is at least `occupancy' full,
+    // but no longer than maxWaitMs
+    //
+    public void awaitOccupancy(double occupancy, long maxWaitMs)
+    {
+    	try
+    	{
+    		lock.lock();
+    		long left = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    		while((double)usedSectors / logSectors < occupancy && left > 0)
+    		{
+    			left = logGrew.awaitNanos(left);
+    		}
+    	}
+    	catch(InterruptedException e)
+    	{
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
     }
 
     //
@@ -71,6 +232,52 @@ public class LogStatus{
     //
     public void recoverySectorsInUse(int startSector, int nSectors)
     {
+    	try
+    	{
+    		lock.lock();
+    		usedSectors += nSectors;
+    		peakUsedSectors = Math.max(peakUsedSectors, usedSectors);
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    //
+    // Recovery scanned the log up to head; seq is the
+    // sequence number the next record appended there gets
+    //
+    public void recoveredHead(int head, int seq)
+    {
+    	try
+    	{
+    		lock.lock();
+    		this.head = head;
+    		this.nextSeq = seq;
+    	}
+    	finally
+    	{
+    		lock.unlock();
+    	}
+    }
+
+    //
+    // Log sectors are 1 to logSectors (0 holds
+    // the log header); map a position past the end back
+    // to the start
+    //
+    public int logPosition(int position)
+    {
+    	return (position - 1) % logSectors + 1;
+    }
+
+    //
+    // Size of the log, as formatted
+    //
+    public int getLogSectors()
+    {
+    	return logSectors;
     }
 
     //
@@ -105,65 +312,55 @@ public class LogStatus{
         return tail;
     }
 
-	public void writeLogHeader(int headPosition, int tailOffset, int dummyCheckpointOffset) {
+	//
+	// Move the tail forward by tailOffset sectors to the
+	// record numbered tailSeq, and write it to sector 0.
+	// The head is not kept here: log records carry sequence
+	// numbers, so recovery finds the head by reading forward
+	// from the tail until the next record is missing. The
+	// head stored is only a hint. Returns false, with the
+	// tail left where it was and writeBackFailed reported,
+	// if the header could not be written.
+	//
+	// Sector 0 layout (ints)
+	// 0 - head, 4 - tail, 8 - checkpoint, 12 - sequence number at tail,
+	// 16 - size of the log in sectors
+	//
+	public boolean writeLogHeader(int tailOffset, int tailSeq) {
 		try
 		{
 			lock.lock();
 			byte[] header = new byte[Disk.SECTOR_SIZE];
-			byte[] temp;
-			if(headPosition == -1)
-				headPosition = this.head;
-			int tailPosition = this.tail + tailOffset;
-			
-			if(tailPosition > ADisk.REDO_LOG_SECTORS)
-			{
-				tailPosition = tailPosition - ADisk.REDO_LOG_SECTORS + 1;
-			}
-			
+			int tailPosition = logPosition(this.tail + tailOffset);
 			int checkpointPosition = tailPosition;
-			
-					
-			if(tailPosition == -1)
-				tailPosition = this.tail;
-			
-			if(checkpointPosition == -1)
-				checkpointPosition = this.checkpoint;
-			
-			int i = 0;
 
-			temp = Transaction.intToBytes(headPosition);
-			System.arraycopy(temp, 0, header, 0, 4);
-			i+=4;
-			
-			temp = Transaction.intToBytes(tailPosition);
-			System.arraycopy(temp, 0, header, i, 4);
-			i+=4;
-			
-			temp = Transaction.intToBytes(checkpointPosition);
-			System.arraycopy(temp, 0, header, i, 4);
-			i+=4;
-			
-	    	for (; i < Disk.SECTOR_SIZE; i++){
-	    		header[i] = 0;
-	    	}
-	
+			System.arraycopy(Transaction.intToBytes(this.head), 0, header, 0, 4);
+			System.arraycopy(Transaction.intToBytes(tailPosition), 0, header, 4, 4);
+			System.arraycopy(Transaction.intToBytes(checkpointPosition), 0, header, 8, 4);
+			System.arraycopy(Transaction.intToBytes(tailSeq), 0, header, 12, 4);
+			System.arraycopy(Transaction.intToBytes(logSectors), 0, header, 16, 4);
 	    	
-	        ad.tracker.resetNumLogWritesCompleted();
-	        
-	        //Now write
-	        ad.write(CallbackTracker.LOG_TAG, 0, header);
-	        
-	        //Now wait for all these writes to get done.
-	        //Since we are going to be writing only one sector, number of writes we need to wait for is 1
-	        ad.tracker.logWriteCompletionWait(1);
+	        //The tail must not move past home writes that are not yet durable
+	        ad.disk.flush();
+
+	        //Now write, and wait for this write to get done
+	        ADisk.waitFor(ad.write(ADisk.LOG_TAG, 0, header));
+	        ad.disk.flush();
 	        
-	    	this.head = headPosition;
+	    	int oldTail = this.tail;
 	    	this.tail = tailPosition;
 	    	this.checkpoint = checkpointPosition;
+	    	this.tailSeq = tailSeq;
+	    	//The tail is past these sectors on disk; they may be reused
+	    	writeBackDone(oldTail, tailOffset);
+	    	return true;
 		}
 		catch(Exception e)
 		{
 			e.printStackTrace();
+			//The tail is stuck where it was
+			writeBackFailed(e);
+			return false;
 		}
 		finally
 		{
@@ -171,6 +368,10 @@ public class LogStatus{
 		}
 	}
     
+	//
+	// Returns {head, tail, checkpoint, sequence number at tail},
+	// and sets the log size from the header
+	//
 	public int[] readLogHeader() throws IllegalArgumentException, IOException {
 		try
 		{
@@ -188,8 +389,26 @@ public class LogStatus{
 			
 			System.arraycopy(header, 8, temp, 0, 4);
 			this.checkpoint = Transaction.bytesToInt(temp);
+
+			System.arraycopy(header, 12, temp, 0, 4);
+			this.tailSeq = Transaction.bytesToInt(temp);
+
+			//The size the log was formatted with (0: a header from
+			//before the size was stored, so the default)
+			System.arraycopy(header, 16, temp, 0, 4);
+			this.logSectors = Transaction.bytesToInt(temp);
+			if(this.logSectors < 1 || this.logSectors > ADisk.MAX_REDO_LOG_SECTORS)
+				this.logSectors = ADisk.REDO_LOG_SECTORS;
+
+			//A zeroed header (nothing written back yet): start of the log
+			if(this.tail < 1 || this.tail > logSectors){
+				this.tail = 1;
+				this.checkpoint = 1;
+			}
+			if(this.tailSeq < 1)
+				this.tailSeq = 1;
 			
-			return new int[] {head, tail, checkpoint};
+			return new int[] {head, tail, checkpoint, tailSeq};
 
 		}
 		finally
@@ -198,8 +417,18 @@ public class LogStatus{
 		}
 	}
 
-    public int writeToLog(Transaction t) throws IOException
+    //
+    // Group commit: give every transaction in batch the next
+    // sequence number, append their records to the log in
+    // order, and flush the Disk once so they are all durable.
+    // The head moves past them in memory only; sector 0 is
+    // left alone, since recovery finds the head by reading
+    // records with consecutive numbers from the tail.
+    //
+    public int writeToLog(List<Transaction> batch) throws IOException
     {
+    	int reserved = 0;
+    	boolean appended = false;
     	try
     	{
     		//Step 0: Lock
@@ -208,47 +437,40 @@ public class LogStatus{
 	    	assert(this.useStatus == LogStatus.OK);
 	        this.useStatus = LogStatus.INPROGRESS;
  
-	        //Step 2: Write to log and wait for its completion
-	        ArrayList<byte[]> logSec = t.getSectorsForLog();
-	        int logLength = logSec.size();
-	        int writePosition = this.reserveLogSectors(t.getNUpdatedSectors() + 2);
-	        //callBackTracker keeps count of the number of requestsDone
-	        //with the tag LOG_TAG. This count has to be reset to 0
-	        ad.tracker.resetNumLogWritesCompleted();
-	        
-	        //Now write
-	        Iterator itr = logSec.iterator();
-	        while( itr.hasNext() ){
-	        	ad.write(CallbackTracker.LOG_TAG, writePosition, (byte[])itr.next());
-	        	writePosition++;
-	        	
-	        	//Implementation of circular log
-	        	if(writePosition > Disk.ADISK_REDO_LOG_SECTORS )
-	        		writePosition = 1; //0th sector is reserved for header
+	        //Step 1: Number the records of the whole batch and write them.
+	        //Each write gets its own completion handle
+	        int nSectors = 0;
+	        for (Transaction t : batch){
+	        	nSectors += t.getNLogSectors();
+	        }
+	        int writePosition = this.reserveLogSectors(nSectors);
+	        reserved = nSectors;
+	        List<CompletableFuture<DiskResult>> writes =
+	        	new ArrayList<CompletableFuture<DiskResult>>(nSectors);
+	        int seq = this.nextSeq;
+	        for (Transaction t : batch){
+	        	t.logSeq = seq++;
+	        	ArrayList<byte[]> logSec = t.getSectorsForLog();
+	        	t.rememberLogSectors(writePosition, logSec.size());
+	        	for (byte[] sector : logSec){
+	        		writes.add(ad.write(ADisk.LOG_TAG, writePosition, sector));
+	        		//Implementation of circular log
+	        		writePosition = logPosition(writePosition + 1);
+	        	}
 	        }
 	        
-	        //Now wait for all these writes to get done.
-	        ad.tracker.logWriteCompletionWait(logLength);
-	        
+	        //Step 2: Wait for all these writes to get done, and for them
+	        //to be durable. The records need no ordering among their
+	        //sectors (recovery checks each record's checksum), and
+	        //sector 0 is not touched (recovery finds them by sequence
+	        //number)
+	        ADisk.waitFor(writes);
+	        ad.disk.flush();
 
-	        //Update The disk log's header (not the transaction's header)
-	        //about the change in the head position
-	        //logStatus variable is also updated by this function
-	        this.writeLogHeader(writePosition ,0,0);
-	        
-	        
-	        
-//	        //TODO: Set read statements to confirm that the log has been written and the header has been updated
-//			byte[]  header = new byte[Disk.SECTOR_SIZE];
-//			ad.read(0, header);
-//			byte[] temp = new byte[4];
-//			System.arraycopy(header, 0, temp, 0, 4);
-//			if()
-//			System.arraycopy(header, 4, temp, 0, 4);
-//			System.arraycopy(header, 8, temp, 0, 4);
-//						
-			
-	        
+	        this.head = writePosition;
+	        this.nextSeq = seq;
+	        appended = true;
+	        logGrew.signalAll();
 	        
 	        //This ends the confirmation that commit has been done
 	        return writePosition;
@@ -259,9 +481,16 @@ public class LogStatus{
     	}
     	finally
     	{
+	        //A failed append never moved the head: its records are
+	        //not in the log (the next append starts at the same
+	        //place, with the same numbers), so give its space back
+	        if(!appended && reserved > 0){
+	        	usedSectors -= reserved;
+	        	spaceFreed.signalAll();
+	        }
 	        this.useStatus = LogStatus.OK;
     		lock.unlock();
     	}
 		return -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+/*
+ * MappedDiskStore.java
+ *
+ * DiskStore that maps the whole disk file into memory.
+ * Sector reads and writes are memory copies; nothing
+ * is durable until force().
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class MappedDiskStore implements DiskStore{
+  private RandomAccessFile file;
+  private volatile MappedByteBuffer map; // Replaced by wipe()
+
+  //-------------------------------------------------------
+  // MappedDiskStore -- grows the file to the full disk
+  // size if it is shorter.
+  //-------------------------------------------------------
+  public MappedDiskStore(String path)
+    throws IOException
+  {
+    this.file = new RandomAccessFile(path, "rw");
+    this.map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                                     (long)Disk.NUM_OF_SECTORS * Disk.SECTOR_SIZE);
+  }
+
+  //-------------------------------------------------------
+  // read/write -- absolute get/put leave the buffer's
+  // position alone, so workers can share the map.
+  //-------------------------------------------------------
+  public void read(int sectorNum, int nSectors, byte b[])
+  {
+    map.get(sectorNum * Disk.SECTOR_SIZE, b, 0, nSectors * Disk.SECTOR_SIZE);
+  }
+
+  public void write(int sectorNum, int nSectors, byte b[])
+  {
+    map.put(sectorNum * Disk.SECTOR_SIZE, b, 0, nSectors * Disk.SECTOR_SIZE);
+  }
+
+  //-------------------------------------------------------
+  // wipe -- as FileDiskStore does, drop the file's contents
+  // and grow it back, so the sectors read as zeros without
+  // being written; then map the new contents. Where a mapped
+  // file cannot be truncated (e.g. Windows), zero it through
+  // the map instead, which writes the whole disk at force().
+  //-------------------------------------------------------
+  public void wipe()
+    throws IOException
+  {
+    long size = (long)Disk.NUM_OF_SECTORS * Disk.SECTOR_SIZE;
+    FileChannel channel = file.getChannel();
+    try{
+      channel.truncate(0);
+    }
+    catch(IOException e){
+      zeroThroughMap();
+      return;
+    }
+    file.setLength(size);
+    channel.force(true);
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private void zeroThroughMap()
+  {
+    byte zeros[] = new byte[Disk.MAX_COALESCE_SECTORS * Disk.SECTOR_SIZE];
+    for(int sector = 0; sector < Disk.NUM_OF_SECTORS;
+        sector += Disk.MAX_COALESCE_SECTORS){
+      int n = Math.min(Disk.MAX_COALESCE_SECTORS, Disk.NUM_OF_SECTORS - sector);
+      write(sector, n, zeros);
+    }
+    map.force();
+  }
+
+  //-------------------------------------------------------
+  // force
+  //-------------------------------------------------------
+  public void force()
+    throws IOException
+  {
+    map.force();
+  }
+}
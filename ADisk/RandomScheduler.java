@@ -0,0 +1,56 @@
+/*
+ * RandomScheduler.java
+ *
+ * Pick a random runnable request. For testing only: it
+ * shakes out code that quietly depends on FIFO order.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.ArrayList;
+import java.util.Random;
+
+public class RandomScheduler implements DiskScheduler{
+  private ArrayList<DiskResult> runnable;
+  private Random rand;
+
+  public RandomScheduler()
+  {
+    runnable = new ArrayList<DiskResult>();
+    rand = new Random();
+  }
+
+  public void add(DiskResult dr)
+  {
+    runnable.add(dr);
+  }
+
+  public DiskResult next()
+  {
+    if(runnable.isEmpty()){
+      return null;
+    }
+    int skip = rand.nextInt(runnable.size());
+    int last = runnable.size() - 1;
+    DiskResult dr = runnable.get(skip);
+    runnable.set(skip, runnable.get(last));
+    runnable.remove(last);
+    return dr;
+  }
+
+  public void remove(DiskResult dr)
+  {
+    int ii = runnable.indexOf(dr);
+    if(ii >= 0){
+      int last = runnable.size() - 1;
+      runnable.set(ii, runnable.get(last));
+      runnable.remove(last);
+    }
+  }
+
+  public boolean isEmpty()
+  {
+    return runnable.isEmpty();
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * SectorBufferPool.java
+ *
+ * Free list of sector-sized buffers shared by all
+ * transactions, so buffering a write does not allocate
+ * once the pool is warm. Holds at most MAX_POOLED
+ * buffers; the rest are left to the garbage collector.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SectorBufferPool{
+  public static final int MAX_POOLED = 4096;
+
+  private static ConcurrentLinkedQueue<byte[]> free =
+    new ConcurrentLinkedQueue<byte[]>();
+  private static AtomicInteger nFree = new AtomicInteger();
+
+  //-------------------------------------------------------
+  // get -- a Disk.SECTOR_SIZE buffer with unspecified
+  // contents
+  //-------------------------------------------------------
+  public static byte[] get()
+  {
+    byte b[] = free.poll();
+    if(b == null){
+      return new byte[Disk.SECTOR_SIZE];
+    }
+    nFree.decrementAndGet();
+    return b;
+  }
+
+  //-------------------------------------------------------
+  // put -- b must no longer be used by anyone
+  //-------------------------------------------------------
+  public static void put(byte b[])
+  {
+    if(b.length != Disk.SECTOR_SIZE){
+      return;
+    }
+    if(nFree.incrementAndGet() > MAX_POOLED){
+      nFree.decrementAndGet();
+      return;
+    }
+    free.offer(b);
+  }
+}
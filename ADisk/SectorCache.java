@@ -0,0 +1,245 @@
+/*
+ * SectorCache.java
+ *
+ * Bounded cache of home-location sector contents between
+ * ADisk and Disk. Filled by reads that miss, updated when
+ * writeback finishes writing a sector.
+ *
+ * Lookups go through a concurrent map and copy from an
+ * array that is never changed after it is published, so
+ * CLOCK lookups take no lock. LRU lookups must reorder
+ * the list and take the lock.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SectorCache{
+
+  /* Eviction policies */
+  public static final int CLOCK = 6101;
+  public static final int LRU = 6102;
+
+  private static class Entry{
+    int sectorNum;
+    volatile byte data[];
+    volatile boolean referenced;
+
+    Entry(int sectorNum, byte data[]){
+      this.sectorNum = sectorNum;
+      this.data = data;
+      this.referenced = true;
+    }
+  }
+
+  private int capacity;
+  private int policy;
+  private ConcurrentHashMap<Integer, Entry> map;
+  private SimpleLock lock;
+
+  // CLOCK: ring of resident entries and the hand sweeping it
+  private Entry ring[];
+  private int hand;
+
+  // LRU: resident entries, least recently used first
+  private LinkedHashMap<Integer, Entry> lru;
+
+  //
+  // Bumped whenever a sector's cached value is replaced or
+  // dropped, so a read that started before that cannot
+  // fill the cache with a stale copy afterwards.
+  //
+  private AtomicIntegerArray versions;
+
+  private AtomicLong hits;
+  private AtomicLong misses;
+
+  //-------------------------------------------------------
+  // SectorCache -- hold at most capacity sectors
+  //-------------------------------------------------------
+  public SectorCache(int capacity, int policy)
+  {
+    if(capacity < 1){
+      throw new IllegalArgumentException("Bad capacity");
+    }
+    if(policy != CLOCK && policy != LRU){
+      throw new IllegalArgumentException("Bad policy");
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    this.map = new ConcurrentHashMap<Integer, Entry>();
+    this.lock = new SimpleLock();
+    this.ring = new Entry[capacity];
+    this.hand = 0;
+    this.lru = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    this.versions = new AtomicIntegerArray(ADisk.SECTOR_NUM_LIMIT);
+    this.hits = new AtomicLong();
+    this.misses = new AtomicLong();
+  }
+
+  //-------------------------------------------------------
+  // get -- copy the cached sector into buffer. Return
+  // false on a miss.
+  //-------------------------------------------------------
+  public boolean get(int sectorNum, byte buffer[])
+  {
+    Entry e = map.get(sectorNum);
+    if(e == null){
+      misses.incrementAndGet();
+      return false;
+    }
+    if(policy == LRU){
+      try{
+        lock.lock();
+        lru.get(sectorNum); // Move to most recently used
+      }
+      finally{
+        lock.unlock();
+      }
+    }
+    e.referenced = true;
+    System.arraycopy(e.data, 0, buffer, 0, Disk.SECTOR_SIZE);
+    hits.incrementAndGet();
+    return true;
+  }
+
+  //-------------------------------------------------------
+  // version -- call before reading sectorNum from disk and
+  // pass the result to fill()
+  //-------------------------------------------------------
+  public int version(int sectorNum)
+  {
+    return versions.get(sectorNum);
+  }
+
+  //-------------------------------------------------------
+  // fill -- cache what a read of sectorNum returned,
+  // unless the sector was updated since version() or
+  // is already cached
+  //-------------------------------------------------------
+  public void fill(int sectorNum, byte data[], int version)
+  {
+    try{
+      lock.lock();
+      if(versions.get(sectorNum) != version || map.containsKey(sectorNum)){
+        return;
+      }
+      insert(new Entry(sectorNum, copyOf(data)));
+    }
+    finally{
+      lock.unlock();
+    }
+  }
+
+  //-------------------------------------------------------
+  // update -- sectorNum now holds data on disk
+  //-------------------------------------------------------
+  public void update(int sectorNum, byte data[])
+  {
+    byte copy[] = copyOf(data);
+    try{
+      lock.lock();
+      versions.incrementAndGet(sectorNum);
+      Entry e = map.get(sectorNum);
+      if(e != null){
+        e.data = copy;
+        e.referenced = true;
+        return;
+      }
+      insert(new Entry(sectorNum, copy));
+    }
+    finally{
+      lock.unlock();
+    }
+  }
+
+  //-------------------------------------------------------
+  // clear -- drop everything (e.g., after format)
+  //-------------------------------------------------------
+  public void clear()
+  {
+    try{
+      lock.lock();
+      for(Integer sectorNum : map.keySet()){
+        versions.incrementAndGet(sectorNum);
+      }
+      map.clear();
+      lru.clear();
+      for(int ii = 0; ii < capacity; ii++){
+        ring[ii] = null;
+      }
+      hand = 0;
+    }
+    finally{
+      lock.unlock();
+    }
+  }
+
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  public double getHitRate()
+  {
+    long h = hits.get();
+    long total = h + misses.get();
+    return total == 0 ? 0.0 : (double)h / total;
+  }
+
+  //-------------------------------------------------------
+  // insert -- add e, evicting if full. Caller holds lock.
+  //-------------------------------------------------------
+  private void insert(Entry e)
+  {
+    if(policy == LRU){
+      if(lru.size() >= capacity){
+        Iterator<Entry> it = lru.values().iterator();
+        Entry victim = it.next();
+        it.remove();
+        map.remove(victim.sectorNum);
+      }
+      lru.put(e.sectorNum, e);
+      map.put(e.sectorNum, e);
+      return;
+    }
+
+    //
+    // CLOCK: skip (and clear) recently referenced entries;
+    // take the first empty or unreferenced slot.
+    //
+    while(true){
+      Entry cur = ring[hand];
+      if(cur == null){
+        break;
+      }
+      if(!cur.referenced){
+        map.remove(cur.sectorNum);
+        break;
+      }
+      cur.referenced = false;
+      hand = (hand + 1) % capacity;
+    }
+    ring[hand] = e;
+    hand = (hand + 1) % capacity;
+    map.put(e.sectorNum, e);
+  }
+
+  private static byte[] copyOf(byte data[])
+  {
+    byte copy[] = new byte[Disk.SECTOR_SIZE];
+    System.arraycopy(data, 0, copy, 0, Disk.SECTOR_SIZE);
+    return copy;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * SectorCacheTests.java
+ *
+ * Tests of SectorCache: CLOCK and LRU eviction and
+ * fills that race with an update.
+ *
+ * java SectorCacheTests to run.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.Arrays;
+
+public class SectorCacheTests {
+
+	private static final int FIRST_SECTOR = ADisk.FIRST_SECTOR_NUM;
+
+	//-------------------------------------------------------
+	// main() -- java SectorCacheTests to run this test
+	//-------------------------------------------------------
+	public static void main(String[] args) {
+		testCacheEviction();
+		System.out.println("SectorCache eviction OK");
+
+		System.out.println("All SectorCache tests OK");
+		System.exit(0);
+	}
+
+	//
+	// CLOCK gives referenced sectors a second chance; LRU
+	// drops the least recently used
+	//
+	private static void testCacheEviction() {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+
+		SectorCache clock = new SectorCache(4, SectorCache.CLOCK);
+		for (int k = 1; k <= 4; k++) {
+			clock.update(FIRST_SECTOR + k, pattern(k));
+		}
+		clock.update(FIRST_SECTOR + 5, pattern(5)); //clears every bit, takes 1's slot
+		clock.get(FIRST_SECTOR + 2, b);
+		clock.update(FIRST_SECTOR + 6, pattern(6)); //2 was used again, takes 3's slot
+		checkCached(clock, new int[] { 2, 4, 5, 6 }, new int[] { 1, 3 }, "CLOCK");
+
+		SectorCache lru = new SectorCache(4, SectorCache.LRU);
+		for (int k = 1; k <= 4; k++) {
+			lru.update(FIRST_SECTOR + k, pattern(k));
+		}
+		lru.get(FIRST_SECTOR + 1, b);
+		lru.update(FIRST_SECTOR + 5, pattern(5));
+		checkCached(lru, new int[] { 1, 3, 4, 5 }, new int[] { 2 }, "LRU");
+
+		//A read that started before an update must not cache its stale copy
+		int version = lru.version(FIRST_SECTOR + 7);
+		lru.update(FIRST_SECTOR + 7, pattern(7));
+		lru.fill(FIRST_SECTOR + 7, pattern(0), version);
+		check(lru.get(FIRST_SECTOR + 7, b) && sameData(b, pattern(7)), "LRU kept a stale fill");
+	}
+
+	private static void checkCached(SectorCache cache, int[] in, int[] out, String policy) {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int k : in) {
+			check(cache.get(FIRST_SECTOR + k, b), policy + " evicted sector " + k);
+			check(sameData(b, pattern(k)), policy + " wrong data for sector " + k);
+		}
+		for (int k : out) {
+			check(!cache.get(FIRST_SECTOR + k, b), policy + " kept sector " + k);
+		}
+	}
+
+	//-------------------------------------------------------
+	// helpers
+	//-------------------------------------------------------
+	private static byte[] pattern(int k) {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) (k * 31 + i + 1);
+		}
+		return b;
+	}
+
+	private static boolean sameData(byte[] a, byte[] b) {
+		return Arrays.equals(a, b);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			fail(what);
+	}
+
+	private static void fail(String what) {
+		System.out.println("FAILED: " + what);
+		System.exit(-1);
+	}
+}
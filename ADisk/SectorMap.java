@@ -0,0 +1,162 @@
+/*
+ * SectorMap.java
+ *
+ * A transaction's write set: sector number -> sector
+ * image. Entries are kept in insertion order in two
+ * parallel arrays and found through an open-addressing
+ * table of int slots, so nothing is boxed and a lookup
+ * takes no lock. Images come from SectorBufferPool.
+ *
+ * Not thread safe: written by the transaction's thread
+ * while it is active and only read after it commits.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+public class SectorMap{
+  private static final int INITIAL_ENTRIES = 8;
+
+  private int sectors[];
+  private byte images[][];
+  private int size;
+
+  // index + 1 of the entry hashed there; 0 = empty
+  private int table[];
+  private int mask;
+
+  //-------------------------------------------------------
+  // SectorMap
+  //-------------------------------------------------------
+  public SectorMap()
+  {
+    sectors = new int[INITIAL_ENTRIES];
+    images = new byte[INITIAL_ENTRIES][];
+    table = new int[INITIAL_ENTRIES * 2];
+    mask = table.length - 1;
+    size = 0;
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  //-------------------------------------------------------
+  // sectorAt/imageAt -- ith entry, in insertion order
+  //-------------------------------------------------------
+  public int sectorAt(int i)
+  {
+    return sectors[i];
+  }
+
+  public byte[] imageAt(int i)
+  {
+    return images[i];
+  }
+
+  //-------------------------------------------------------
+  // get -- image of sectorNum, or null
+  //-------------------------------------------------------
+  public byte[] get(int sectorNum)
+  {
+    int slot = find(sectorNum);
+    return table[slot] == 0 ? null : images[table[slot] - 1];
+  }
+
+  //-------------------------------------------------------
+  // write -- copy len bytes of b into sectorNum's image
+  // (taken from the pool if new); the rest of the sector
+  // is zero
+  //-------------------------------------------------------
+  public void write(int sectorNum, byte b[], int len)
+  {
+    int slot = find(sectorNum);
+    byte image[];
+    if(table[slot] != 0){
+      image = images[table[slot] - 1];
+    }
+    else{
+      image = SectorBufferPool.get();
+      add(slot, sectorNum, image);
+    }
+    System.arraycopy(b, 0, image, 0, len);
+    for(int ii = len; ii < Disk.SECTOR_SIZE; ii++){
+      image[ii] = 0;
+    }
+  }
+
+  //-------------------------------------------------------
+  // put -- use image as sectorNum's image (no copy)
+  //-------------------------------------------------------
+  public void put(int sectorNum, byte image[])
+  {
+    int slot = find(sectorNum);
+    if(table[slot] != 0){
+      images[table[slot] - 1] = image;
+      return;
+    }
+    add(slot, sectorNum, image);
+  }
+
+  //-------------------------------------------------------
+  // release -- return every image to the pool and empty
+  // the map. Nobody may use the images afterwards.
+  //-------------------------------------------------------
+  public void release()
+  {
+    for(int ii = 0; ii < size; ii++){
+      SectorBufferPool.put(images[ii]);
+      images[ii] = null;
+    }
+    size = 0;
+    for(int ii = 0; ii < table.length; ii++){
+      table[ii] = 0;
+    }
+  }
+
+  //-------------------------------------------------------
+  // find -- slot holding sectorNum, or the empty slot
+  // where it would go (linear probing)
+  //-------------------------------------------------------
+  private int find(int sectorNum)
+  {
+    int slot = (sectorNum * 0x9E3779B9) >>> 16 & mask;
+    while(table[slot] != 0 && sectors[table[slot] - 1] != sectorNum){
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void add(int slot, int sectorNum, byte image[])
+  {
+    if(size == sectors.length){
+      grow();
+      slot = find(sectorNum);
+    }
+    sectors[size] = sectorNum;
+    images[size] = image;
+    size++;
+    table[slot] = size;
+  }
+
+  //-------------------------------------------------------
+  // grow -- double the entries and rehash; the table
+  // stays at most half full
+  //-------------------------------------------------------
+  private void grow()
+  {
+    int n = sectors.length * 2;
+    int newSectors[] = new int[n];
+    byte newImages[][] = new byte[n][];
+    System.arraycopy(sectors, 0, newSectors, 0, size);
+    System.arraycopy(images, 0, newImages, 0, size);
+    sectors = newSectors;
+    images = newImages;
+    table = new int[n * 2];
+    mask = table.length - 1;
+    for(int ii = 0; ii < size; ii++){
+      table[find(sectors[ii])] = ii + 1;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * SectorMapTests.java
+ *
+ * Tests of SectorMap, the write set a transaction keeps
+ * until it commits.
+ *
+ * java SectorMapTests to run.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.Arrays;
+
+public class SectorMapTests {
+
+	private static final int FIRST_SECTOR = ADisk.FIRST_SECTOR_NUM;
+
+	//-------------------------------------------------------
+	// main() -- java SectorMapTests to run this test
+	//-------------------------------------------------------
+	public static void main(String[] args) {
+		testSectorMapGrowth();
+		System.out.println("SectorMap growth OK");
+
+		System.out.println("All SectorMap tests OK");
+		System.exit(0);
+	}
+
+	//
+	// Enough sectors to rehash the table several times;
+	// rewriting one keeps a single entry
+	//
+	private static void testSectorMapGrowth() {
+		SectorMap map = new SectorMap();
+		int n = 3000;
+		for (int k = 0; k < n; k++) {
+			map.write(FIRST_SECTOR + 7 * k, pattern(k), Disk.SECTOR_SIZE);
+		}
+		map.write(FIRST_SECTOR, pattern(n), 10);
+		check(map.size() == n, "SectorMap size " + map.size());
+		for (int k = 0; k < n; k++) {
+			check(map.sectorAt(k) == FIRST_SECTOR + 7 * k, "SectorMap order at " + k);
+			byte[] image = map.get(FIRST_SECTOR + 7 * k);
+			check(image != null, "SectorMap lost sector " + (FIRST_SECTOR + 7 * k));
+			if (k > 0) {
+				check(sameData(image, pattern(k)), "SectorMap data for entry " + k);
+			}
+		}
+		byte[] first = map.get(FIRST_SECTOR);
+		check(first[9] == pattern(n)[9] && first[10] == 0, "SectorMap partial rewrite");
+		check(map.get(FIRST_SECTOR + 1) == null, "SectorMap found a sector never written");
+		map.release();
+		check(map.size() == 0 && map.get(FIRST_SECTOR) == null, "SectorMap not empty after release");
+	}
+
+	//-------------------------------------------------------
+	// helpers
+	//-------------------------------------------------------
+	private static byte[] pattern(int k) {
+		byte[] b = new byte[Disk.SECTOR_SIZE];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) (k * 31 + i + 1);
+		}
+		return b;
+	}
+
+	private static boolean sameData(byte[] a, byte[] b) {
+		return Arrays.equals(a, b);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok)
+			fail(what);
+	}
+
+	private static void fail(String what) {
+		System.out.println("FAILED: " + what);
+		System.exit(-1);
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * SectorStatus.java
+ *
+ * Tracks which sectors have an ADisk write in progress.
+ * The status array is atomic, so checking a sector takes
+ * no lock. Waiters sleep on one of a set of striped
+ * conditions, so finishing a write only wakes threads
+ * waiting on sectors in the same stripe.
+ *
+ * It is also the DiskCallback for ADisk's Disk: a
+ * finished write marks its sectors done before the
+ * request's future completes.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+
+public class SectorStatus implements DiskCallback{
+  private static final int STRIPES = 256;
+
+  private AtomicIntegerArray status;
+  private SimpleLock locks[];
+  private Condition writeDone[];
+
+  //-------------------------------------------------------
+  // SectorStatus
+  //-------------------------------------------------------
+  public SectorStatus(int nSectors)
+  {
+    status = new AtomicIntegerArray(nSectors);
+    for(int ii = 0; ii < nSectors; ii++){
+      status.set(ii, ADisk.DONE_OK);
+    }
+    locks = new SimpleLock[STRIPES];
+    writeDone = new Condition[STRIPES];
+    for(int ii = 0; ii < STRIPES; ii++){
+      locks[ii] = new SimpleLock();
+      writeDone[ii] = locks[ii].newCondition();
+    }
+  }
+
+  public int get(int sectorNum)
+  {
+    return status.get(sectorNum);
+  }
+
+  //-------------------------------------------------------
+  // beginWrite -- wait until no write to sectorNum is in
+  // progress, then claim it.
+  //-------------------------------------------------------
+  public void beginWrite(int sectorNum)
+  {
+    while(true){
+      int cur = status.get(sectorNum);
+      if(cur != ADisk.INPROGRESS
+         && status.compareAndSet(sectorNum, cur, ADisk.INPROGRESS)){
+        return;
+      }
+      waitWhileWriting(sectorNum);
+    }
+  }
+
+  //-------------------------------------------------------
+  // endWrite -- release sectorNum and wake its waiters
+  //-------------------------------------------------------
+  public void endWrite(int sectorNum, boolean ok)
+  {
+    int stripe = sectorNum % STRIPES;
+    assert(status.get(sectorNum) == ADisk.INPROGRESS);
+    status.set(sectorNum, ok ? ADisk.DONE_OK : ADisk.DONE_ERROR);
+    try{
+      locks[stripe].lock();
+      writeDone[stripe].signalAll();
+    }
+    finally{
+      locks[stripe].unlock();
+    }
+  }
+
+  //-------------------------------------------------------
+  // waitWhileWriting -- block until no write to sectorNum
+  // is in progress
+  //-------------------------------------------------------
+  public void waitWhileWriting(int sectorNum)
+  {
+    if(status.get(sectorNum) != ADisk.INPROGRESS){
+      return;
+    }
+    int stripe = sectorNum % STRIPES;
+    try{
+      locks[stripe].lock();
+      while(status.get(sectorNum) == ADisk.INPROGRESS){
+        writeDone[stripe].awaitUninterruptibly();
+      }
+    }
+    finally{
+      locks[stripe].unlock();
+    }
+  }
+
+  //-------------------------------------------------------
+  // requestDone -- callback from Disk
+  //-------------------------------------------------------
+  public void requestDone(DiskResult result)
+  {
+    if(result.getOperation() != Disk.WRITE){
+      return;
+    }
+    for(int ii = 0; ii < result.getNSectors(); ii++){
+      endWrite(result.getSectorNum() + ii, result.getStatus() == DiskResult.OK);
+    }
+  }
+}
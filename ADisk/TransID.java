@@ -9,21 +9,35 @@
  * (C) 2007 Mike Dahlin
  *
  */
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TransID{
 	
-	private static int maxID = 1;
-	public int id;
+	//Highest ID handed out or seen; new IDs are allocated atomically
+	private static AtomicInteger maxID = new AtomicInteger(1);
+	public final int id;
 	
 	public TransID(){
-		maxID++;
-		id = maxID;
+		id = maxID.incrementAndGet();
 	}
 	
 	public TransID(int tid){
 		id = tid;
-		if (maxID < tid)
-			maxID = tid;
+		int max = maxID.get();
+		while (max < tid && !maxID.compareAndSet(max, tid))
+			max = maxID.get();
+	}
+	
+	//Two TransIDs with the same id name the same transaction
+	public boolean equals(Object o){
+		return (o instanceof TransID) && ((TransID)o).id == id;
+	}
+	
+	public int hashCode(){
+		return id;
+	}
+	
+	public String toString(){
+		return Integer.toString(id);
 	}
-
-
 }
@@ -13,8 +13,8 @@
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 public class Transaction {
 
@@ -25,18 +25,22 @@ public class Transaction {
     public static final int INPROGRESS = 0;
     public static final int COMMITTED = 1;
     public static final int HEADERID = 222;
+    //bytes of the log header before the list of updated sectors
+    private static final int HEADER_FIXED_BYTES = 18;
     public int status;
     public TransID tid;
     public int logStart;
     public int numSectors;
-    private Hashtable<Integer, byte[]> data; //not sure is hash tables are the right way to go here
+    public int logSeq; //sequence number of this transaction's log record
+    private SectorMap data; //write set; images are pooled buffers
 
     public Transaction(TransID id) {
-        data = new Hashtable<Integer, byte[]>();
+        data = new SectorMap();
         this.status = INPROGRESS;
         this.tid = id;
         logStart = -1;
         numSectors = -1;
+        logSeq = -1;
     }
 
     //Check for size of buffer. It must fit within a sector - if not throw illegal argument exception 
@@ -51,13 +55,12 @@ public class Transaction {
             throw new IllegalArgumentException();
         }
         
-        if (sectorNum < 0 + Disk.ADISK_REDO_LOG_SECTORS || sectorNum > Disk.NUM_OF_SECTORS) {
+        if (sectorNum < ADisk.FIRST_SECTOR_NUM || sectorNum >= ADisk.SECTOR_NUM_LIMIT) {
             throw new IndexOutOfBoundsException();
         }
         
-        //If all checks have been made, smiply add this write to the active transaction hash table
-        byte[] cloneOfGivenBuffer =   (byte[])buffer.clone(); 
-        data.put(sectorNum, cloneOfGivenBuffer);
+        //If all checks have been made, simply copy this write into the write set
+        data.write(sectorNum, buffer, buffer.length);
     }
 
     //
@@ -72,31 +75,24 @@ public class Transaction {
         if (buffer.length > Disk.SECTOR_SIZE) {
             throw new IllegalArgumentException();
         }
-        if (sectorNum < 0 + Disk.ADISK_REDO_LOG_SECTORS || sectorNum > Disk.NUM_OF_SECTORS) {
+        if (sectorNum < ADisk.FIRST_SECTOR_NUM || sectorNum >= ADisk.SECTOR_NUM_LIMIT) {
             throw new IndexOutOfBoundsException();
         }
         //The following loop is to copy the data from the data to the buffer. Otherwise buffer does nto change
-        byte[] temp = (byte[]) data.get(sectorNum);
+        byte[] temp = data.get(sectorNum);
         
         if (temp == null) {
             return false;
         }
         
-        for(int i = 0 ; i< buffer.length ; i++)
-        {
-        	buffer[i] = temp[i];	
-        }
+        System.arraycopy(temp, 0, buffer, 0, buffer.length);
         return true;
     }
 
+    //No limit on the number of writes here: the record
+    //only has to fit in the log (see CommitThread)
     public void commit()
             throws IOException, IllegalArgumentException {
-
-    	if (data.size() > Common.MAX_WRITES_PER_TRANSACTION){
-    		System.out.println("Transaction has too many writes: " + data.size() + "; " +
-    				"must be less than " + Common.MAX_WRITES_PER_TRANSACTION);
-    		throw new IllegalArgumentException();
-    	}
         status = COMMITTED;
     }
 
@@ -104,7 +100,17 @@ public class Transaction {
     public void abort()
             throws IOException, IllegalArgumentException {
         status = ABORTED;
-        data.clear();
+        data.release();
+    }
+
+    //
+    // Return the write set's buffers to the pool once
+    // nothing can read them: after abort, or once a
+    // committed transaction is written back and off
+    // the writebacklist.
+    //
+    public void release() {
+        data.release();
     }
 
     //
@@ -118,57 +124,82 @@ public class Transaction {
     // array ArrayList that can be written to some number
     // of sectors in the log in order to place
     // this transaction on disk. Note that the
-    // first sector is the header, which lists
-    // which sectors the transaction updates
-    // and the last sector is the commit.
-    // The k sectors between should contain
-    // the k writes by this transaction.
+    // first sectors are the header, which lists
+    // which sectors the transaction updates; a long
+    // list continues into as many header sectors as
+    // it needs. The k sectors after the header contain
+    // the k writes by this transaction. There is no
+    // commit sector: the header's checksum covers the
+    // whole record, so a record only partly on disk
+    // fails it.
     //
     public ArrayList<byte[]> getSectorsForLog(){
     	//Status may not be committed at this point
     	//Only after a transaction is written to disk, the status is changed to COMMIT
-    	ArrayList<byte[]> result = new ArrayList<byte[]>(data.size() + 2); 
-    	byte[] header = new byte[Disk.SECTOR_SIZE];
-    	byte[] commit = new byte[Disk.SECTOR_SIZE];
+    	int nHeaderSectors = headerSectors(data.size());
+    	ArrayList<byte[]> result = new ArrayList<byte[]>(nHeaderSectors + data.size()); 
+    	byte[] header = new byte[nHeaderSectors * Disk.SECTOR_SIZE];
     	
     	//setup header
     	// 0 - HEADERID 
-    	// 1 - number of sectors in this transaction (not including header and commit sectors)
+    	// 1 - 0
     	// 2-5 - transaction id
-    	// 6 - (6 + data.size()*4) - sector numbers contained in this transaction
+    	// 6-9 - log sequence number
+    	// 10-13 - checksum of the record (see checksum())
+    	// 14-17 - number of sectors updated by this transaction
+    	// 18 - (18 + data.size()*4) - sector numbers contained in this transaction,
+    	//      running on into the following header sectors
     	// everything after - 0's
     	header[0] = (byte) HEADERID;
-    	header[1] = (byte) getNUpdatedSectors();
-    	int i = 2;
-    	byte[] temp1 = Transaction.intToBytes(tid.id);
-    	header[i] = temp1[0];
-		header[i+1] = temp1[1];
-		header[i+2] = temp1[2];
-		header[i+3] = temp1[3];
-		i+=4;
-    	Iterator<Integer> sectors1= this.getKeys();
-    	while (sectors1.hasNext()){
-    		byte[] temp2 = intToBytes(sectors1.next());
-    		header[i] = temp2[0];
-    		header[i+1] = temp2[1];
-    		header[i+2] = temp2[2];
-    		header[i+3] = temp2[3];
-    		i+=4;
-    	}
-    	for (; i < Disk.SECTOR_SIZE; i++){
-    		header[i] = 0;
+    	putInt(header, 2, tid.id);
+    	putInt(header, 6, logSeq);
+    	putInt(header, 14, data.size());
+    	for (int k = 0; k < data.size(); k++){
+    		putInt(header, HEADER_FIXED_BYTES + k * 4, data.sectorAt(k));
     	}
     	
-    	result.add(header);
-    	Iterator<Integer> sectors2 = this.getKeys();
-    	while (sectors2.hasNext()){
-    		result.add(data.get(sectors2.next()));
+    	for (int k = 0; k < nHeaderSectors; k++){
+    		result.add(Arrays.copyOfRange(header, k * Disk.SECTOR_SIZE, (k + 1) * Disk.SECTOR_SIZE));
+    	}
+    	for (int k = 0; k < data.size(); k++){
+    		result.add(data.imageAt(k));
     	}
-    	result.add(commit);
+    	putInt(result.get(0), 10, checksum(result));
     	
     	return result;
     }
 
+    //
+    // Number of log sectors this transaction's record
+    // takes: header sectors plus one per update
+    //
+    public int getNLogSectors() {
+    	return headerSectors(data.size()) + data.size();
+    }
+
+    //
+    // Header sectors needed to list nUpdates sectors
+    //
+    private static int headerSectors(int nUpdates) {
+    	return (HEADER_FIXED_BYTES + nUpdates * 4 + Disk.SECTOR_SIZE - 1) / Disk.SECTOR_SIZE;
+    }
+
+    //
+    // CRC32 of a log record: the first header sector with
+    // its checksum field taken as 0, then every other sector
+    //
+    private static int checksum(ArrayList<byte[]> record) {
+    	CRC32 crc = new CRC32();
+    	byte[] header = record.get(0);
+    	crc.update(header, 0, 10);
+    	crc.update(new byte[4]);
+    	crc.update(header, 14, Disk.SECTOR_SIZE - 14);
+    	for (int k = 1; k < record.size(); k++){
+    		crc.update(record.get(k), 0, Disk.SECTOR_SIZE);
+    	}
+    	return (int) crc.getValue();
+    }
+
     //
     // You'll want to remember where a Transactions
     // log record ended up in the log so that
@@ -194,7 +225,7 @@ public class Transaction {
     // transaction updates. Used for writeback.
     //
     public int getNUpdatedSectors() {
-        return data.size(); //what about header and commit?
+        return data.size(); //not counting the log header
     }
 
     //
@@ -205,8 +236,21 @@ public class Transaction {
     // write in byte array. Used for writeback.
     //
     public int getUpdateI(int i, byte buffer[]) {
-        return -1;
-        
+        System.arraycopy(data.imageAt(i), 0, buffer, 0, Disk.SECTOR_SIZE);
+        return data.sectorAt(i);
+    }
+
+    //
+    // Like getUpdateI, without copying: the
+    // sector number and the transaction's own
+    // image of the ith update
+    //
+    public int getSectorI(int i) {
+        return data.sectorAt(i);
+    }
+
+    public byte[] getDataI(int i) {
+        return data.imageAt(i);
     }
 
     //
@@ -214,23 +258,62 @@ public class Transaction {
     // be a transaction header. If so, return
     // the total number of sectors in the
     // log that should be read (including the
-    // header and commit) to get the full transaction.
+    // header) to get the full transaction.
     //
     public static int parseHeader(byte buffer[]) {
-        return -1;
+        if (buffer[0] != (byte)HEADERID)
+            return -1;
+        int nUpdates = getInt(buffer, 14);
+        if (nUpdates < 0 || nUpdates > Disk.NUM_OF_SECTORS)
+            return -1;
+        return headerSectors(nUpdates) + nUpdates;
+    }
+
+    //
+    // Log sequence number of a header sector
+    //
+    public static int parseSeq(byte buffer[]) {
+        return getInt(buffer, 6);
     }
 
     //
-    // Parse k+2 sectors from disk (header + k update sectors + commit).
-    // If this is a committed transaction, construct a
-    // committed transaction and return it. Otherwise
-    // throw an exception or return null.
+    // Parse the sectors of one record from disk (header +
+    // k update sectors). If this is a complete record,
+    // construct a committed transaction and return it.
+    // Otherwise (checksum does not match) return null.
     public static Transaction parseLogBytes(byte buffer[]) {
-        return null;
+        int nSectors = parseHeader(buffer);
+        if (nSectors == -1 || buffer.length < nSectors * Disk.SECTOR_SIZE)
+            return null;
+
+        ArrayList<byte[]> record = new ArrayList<byte[]>(nSectors);
+        for (int k = 0; k < nSectors; k++) {
+            record.add(Arrays.copyOfRange(buffer, k * Disk.SECTOR_SIZE, (k + 1) * Disk.SECTOR_SIZE));
+        }
+        if (getInt(buffer, 10) != checksum(record))
+            return null;
+
+        int nUpdates = getInt(buffer, 14);
+        int nHeaderSectors = nSectors - nUpdates;
+        Transaction t = new Transaction(new TransID(getInt(buffer, 2)));
+        for (int k = 0; k < nUpdates; k++) {
+            t.data.put(getInt(buffer, HEADER_FIXED_BYTES + k * 4), record.get(nHeaderSectors + k));
+        }
+        t.logSeq = getInt(buffer, 6);
+        t.status = COMMITTED;
+        return t;
     }
     
+    private static void putInt(byte[] b, int offset, int value) {
+        System.arraycopy(intToBytes(value), 0, b, offset, 4);
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        byte[] temp = new byte[4];
+        System.arraycopy(b, offset, temp, 0, 4);
+        return bytesToInt(temp);
+    }
 
-    
 	public static byte[] intToBytes(int value) {
 		return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16),
 				(byte) (value >>> 8), (byte) value };
@@ -246,10 +329,6 @@ public class Transaction {
         return value;
 		}
 
-	public Iterator<Integer> getKeys() {
-		return data.keySet().iterator();
-	}
-
 	public byte[] getData(int sector) {
 		return data.get(sector);
 	}
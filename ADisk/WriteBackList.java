@@ -1,8 +1,12 @@
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*
  * WriteBackList.java
@@ -22,12 +26,20 @@ public class WriteBackList{
     //
 
     private Queue<Transaction> wList;
-    private SimpleLock lock;
+    //Sector number -> last-committed transaction in wList that wrote it
+    private HashMap<Integer, Transaction> newest;
+    //Readers (checkRead) share the lock; changes to the list take it exclusively
+    private ReentrantReadWriteLock rwLock;
+    private ReentrantReadWriteLock.WriteLock lock;
+    private ReentrantReadWriteLock.ReadLock readLock;
     private Condition listHasElements;
     
     public WriteBackList(){
-    	lock = new SimpleLock();
+    	rwLock = new ReentrantReadWriteLock();
+    	lock = rwLock.writeLock();
+    	readLock = rwLock.readLock();
         wList = new LinkedList<Transaction>();
+        newest = new HashMap<Integer, Transaction>();
         listHasElements = lock.newCondition();
     }
 
@@ -39,6 +51,11 @@ public class WriteBackList{
     	{
     		lock.lock();
             wList.offer(t);
+            //Commit order is list order, so t is now the newest
+            //version of every sector it wrote
+            for (int k = 0; k < t.getNUpdatedSectors(); k++){
+            	newest.put(t.getSectorI(k), t);
+            }
             listHasElements.signalAll();
     	}
     	catch(Exception e)
@@ -91,6 +108,42 @@ public class WriteBackList{
 		return null;
     }
 
+    //
+    // Like getNextWriteback, but return up to max
+    // transactions, oldest (first committed) first,
+    // starting with the one after `after' (or with the
+    // first one if `after' is null or already removed).
+    // Blocks until there is at least one. None are removed.
+    //
+    public List<Transaction> getNextWritebacks(Transaction after, int max){
+    	try
+    	{
+	    	lock.lock();
+	    	while(true)
+	    	{
+	    		Iterator<Transaction> itr = wList.iterator();
+	    		if(after != null && wList.contains(after))
+	    		{
+	    			while(itr.next() != after)
+	    				;
+	    		}
+	    		if(itr.hasNext())
+	    		{
+	    			List<Transaction> window = new ArrayList<Transaction>();
+	    			while(itr.hasNext() && window.size() < max)
+	    			{
+	    				window.add(itr.next());
+	    			}
+	    			return window;
+	    		}
+	    		listHasElements.awaitUninterruptibly();
+	    	}
+    	}
+        finally{
+        	lock.unlock();
+        }
+    }
+
     //
     // Remove a transaction -- its writebacks
     // are now safely on disk.
@@ -105,6 +158,14 @@ public class WriteBackList{
 	    	}
 	        assert(!wList.isEmpty());
 	        Transaction t =  wList.poll();
+	        //Drop index entries that still point at t; a later
+	        //transaction that wrote the same sector keeps its entry
+	        for (int k = 0; k < t.getNUpdatedSectors(); k++){
+	        	int sector = t.getSectorI(k);
+	        	if (newest.get(sector) == t){
+	        		newest.remove(sector);
+	        	}
+	        }
             return t;
     	} catch (Exception e) {
 			// TODO Auto-generated catch block
@@ -128,27 +189,17 @@ public class WriteBackList{
     {
     	try
     	{
-    		lock.lock();
-        	//Iterate through each element of the list, whichever transaction that has secNum will write it's data to buffer[]
+    		readLock.lock();
+        	//The index holds the last-committed write, so one lookup and
+        	//one copy is enough however long the list is
         	//assumes buffer[] will not be accessed until checkRead returns
-        	Iterator<Transaction> itr = wList.iterator();
         	boolean result = false;
-        	Transaction t;
-        	while (itr.hasNext()){
-        		t = itr.next();
-        		if (t.getData(secNum) != null){
-        			
-        			//The following loop is to copy the data from the data to the buffer. Otherwise buffer does nto change
-        	        byte[] temp = (byte[]) t.getData(secNum);
-        	        
-        	        if (temp == null) {
-        	            result = false;
-        	        }
-        	        else
-        	        {
-        	        	System.arraycopy(temp, 0, buffer, 0, buffer.length);	
-    	    	        result = true;
-        	        }
+        	Transaction t = newest.get(secNum);
+        	if (t != null){
+        		byte[] temp = t.getData(secNum);
+        		if (temp != null){
+        			System.arraycopy(temp, 0, buffer, 0, buffer.length);
+        			result = true;
         		}
         	}
             return result;
@@ -159,7 +210,7 @@ public class WriteBackList{
     	}
     	finally
     	{
-    		lock.unlock();
+    		readLock.unlock();
     	}
 		return false;
     }
@@ -1,12 +1,58 @@
-import java.util.Iterator;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
 import java.util.concurrent.locks.Condition;
 
 
 public class WriteBackThread extends Thread{
 	
+	//-------------------------------------------------------
+	// Most committed transactions written back together
+	//-------------------------------------------------------
+	public static final int WRITEBACK_WINDOW = 32;
+	
+	//-------------------------------------------------------
+	// Number of WriteBackWorkers writing home locations
+	//-------------------------------------------------------
+	public static final int WRITEBACK_WORKERS = 4;
+	
+	//-------------------------------------------------------
+	// Most windows handed to workers but not yet retired
+	//-------------------------------------------------------
+	public static final int MAX_WINDOWS_IN_FLIGHT = 4;
+	
+	//-------------------------------------------------------
+	// Longest writeback holds off while the log is below
+	// LogStatus.LOW_WATERMARK
+	//-------------------------------------------------------
+	public static final long IDLE_WAIT_MS = 20;
+	
+	//
+	// Transactions written back together. Retired (log tail
+	// moved past them, removed from the writebacklist) once
+	// every worker has written its part.
+	//
+	static class Window{
+		List<Transaction> transactions;
+		int tailOffset;
+		int partsLeft;
+		
+		Window(List<Transaction> transactions){
+			this.transactions = transactions;
+		}
+	}
+	
 	private ADisk ad;
 	public Transaction prev;
+	private WriteBackWorker workers[];
+	
+	//Windows handed to workers, oldest first
+	private SimpleLock windowLock;
+	private Condition windowRetired;
+	private LinkedList<Window> inFlight;
+	private boolean retiring; //a partDone caller is retiring windows
+	private boolean retireFailed; //the tail could not be moved
 	
 	//This is for tracking reads
 	private SimpleLock lock;
@@ -21,56 +67,185 @@ public class WriteBackThread extends Thread{
 		writebackDone = lock.newCondition();
 		transactionsReceived = new LinkedList<TransID>();
 		waitTransactionsList = new LinkedList<TransID>();
+		windowLock = new SimpleLock();
+		windowRetired = windowLock.newCondition();
+		inFlight = new LinkedList<Window>();
+		retiring = false;
+		retireFailed = false;
+		workers = new WriteBackWorker[WRITEBACK_WORKERS];
+		for (int i = 0; i < WRITEBACK_WORKERS; i++){
+			workers[i] = new WriteBackWorker(adisk, this);
+		}
 	}
 	
+	//
+	// Hand windows of committed transactions to the workers.
+	// A sector always goes to worker (sector % WRITEBACK_WORKERS).
+	//
 	public void run() {
+		for (WriteBackWorker w : workers){
+			w.start();
+		}
+		Transaction lastDispatched = null;
+		while(true){
+			//Pace by log occupancy. Nearly empty: hold off a little so
+			//home writes do not compete with foreground reads and more
+			//writes get absorbed. Filling up: bigger windows and more of
+			//them in flight, until above the high watermark it runs flat out.
+			ad.logStatus.awaitOccupancy(LogStatus.LOW_WATERMARK, IDLE_WAIT_MS);
+			double pace = Math.min(1.0, ad.logStatus.getOccupancy() / LogStatus.HIGH_WATERMARK);
+			int windowSize = Math.max(1, (int)Math.ceil(WRITEBACK_WINDOW * pace));
+			int maxInFlight = Math.max(1, (int)Math.ceil(MAX_WINDOWS_IN_FLIGHT * pace));
+			
+			waitForRoom(maxInFlight);
+			List<Transaction> transactions =
+				ad.wList.getNextWritebacks(lastDispatched, windowSize);
+			lastDispatched = transactions.get(transactions.size() - 1);
+			Window window = new Window(transactions);
+			
+			//Absorb: later transactions in the window replace earlier
+			//writes of the same sector, so each sector is written once
+			//with its final version. The TreeMaps keep sector order.
+			List<TreeMap<Integer, byte[]>> parts =
+				new ArrayList<TreeMap<Integer, byte[]>>(WRITEBACK_WORKERS);
+			for (int i = 0; i < WRITEBACK_WORKERS; i++){
+				parts.add(new TreeMap<Integer, byte[]>());
+			}
+			for (Transaction t : transactions){
+				for (int k = 0; k < t.getNUpdatedSectors(); k++){
+					int sector = t.getSectorI(k);
+					parts.get(sector % WRITEBACK_WORKERS).put(sector, t.getDataI(k));
+				}
+				window.tailOffset += t.recallLogSectorNSectors();
+			}
+			
+			//Count the parts before any worker can finish one
+			for (TreeMap<Integer, byte[]> part : parts){
+				if (!part.isEmpty())
+					window.partsLeft++;
+			}
+			try
+			{
+				windowLock.lock();
+				inFlight.add(window);
+			}
+			finally
+			{
+				windowLock.unlock();
+			}
+			if (window.partsLeft == 0){
+				partDone(null);
+				continue;
+			}
+			for (int i = 0; i < WRITEBACK_WORKERS; i++){
+				if (!parts.get(i).isEmpty())
+					workers[i].addPart(window, parts.get(i));
+			}
+		}
+	}
+	
+	//
+	// A worker has written its part of window (null: nothing
+	// new written). Retire finished windows in order: the
+	// tail may only move past a transaction once every
+	// worker has written it back. One caller at a time
+	// retires, without windowLock, so the header write and
+	// its flushes do not hold up the other workers; a window
+	// that finishes meanwhile is picked up by that caller.
+	//
+	void partDone(Window window)
+	{
 		try
 		{
-			while(true){
-				Transaction t = ad.wList.getNextWriteback();
-				int transactionLength = 0;
-				t = ad.wList.getNextWriteback();
-				assert (t != null);
-				Iterator<Integer> sectors = t.getKeys();
-				
-				//The tracker must be reset before starting to write a transaction
-		        ad.tracker.resetNumTransactionWritesCompleted();
-		        
-		        //Write the stuff to the disk
-				while (sectors.hasNext()){
-					int sector = sectors.next();
-					ad.write(CallbackTracker.DISK_WRITE_TAG, sector, t.getData(sector));
-					transactionLength++;
+			windowLock.lock();
+			if (window != null)
+				window.partsLeft--;
+			if (retiring || retireFailed)
+				return;
+			retiring = true;
+		}
+		finally
+		{
+			windowLock.unlock();
+		}
+		while (true){
+			Window next;
+			try
+			{
+				windowLock.lock();
+				next = inFlight.peek();
+				if (next == null || next.partsLeft != 0){
+					retiring = false;
+					return;
 				}
-				
-				//Now wait for all these writes to get done.
-		        ad.tracker.transactionWriteCompletionWait(transactionLength);
-		        int tailOffset = transactionLength + 2;
-		        ad.logStatus.writeLogHeader(-1, tailOffset,0);
-       
-		        
-		        //System.out.println("Transaction " + t.tid.id + " written to disk." );
-				
-				//Once all the writes are completed, remove the item from the writebacklist.
-		        prev = ad.wList.removeNextWriteback();
-		        
-		        
-				if(waitTransactionsList.contains(t.tid))
-				{
-					waitTransactionsList.removeFirstOccurrence(t.tid);
-					transactionsReceived.add(t.tid);
-					transactionReceivedSignal();
+			}
+			finally
+			{
+				windowLock.unlock();
+			}
+			boolean ok = retire(next);
+			try
+			{
+				windowLock.lock();
+				if (!ok){
+					//The tail did not move: leave everything in
+					//place (writeBackFailed has been reported)
+					retireFailed = true;
+					retiring = false;
+					return;
 				}
+				inFlight.poll();
+				windowRetired.signalAll();
+			}
+			finally
+			{
+				windowLock.unlock();
+			}
+		}
+	}
+	
+	//
+	// Move the tail past window and let go of its
+	// transactions. Returns false, having changed nothing
+	// but the log header, if the header could not be written.
+	//
+	private boolean retire(Window window)
+	{
+		//Move the tail past the whole window at once
+		Transaction last = window.transactions.get(window.transactions.size() - 1);
+		if (!ad.logStatus.writeLogHeader(window.tailOffset, last.logSeq + 1))
+			return false;
+		
+		//Once all the writes are completed, remove the items from the writebacklist.
+		for (Transaction t : window.transactions){
+			prev = ad.wList.removeNextWriteback();
+			assert(prev == t);
+			//Off the list and written back: no one reads its buffers now
+			t.release();
+			
+			if(waitTransactionsList.contains(t.tid))
+			{
+				waitTransactionsList.removeFirstOccurrence(t.tid);
+				transactionsReceived.add(t.tid);
+				transactionReceivedSignal();
 			}
 		}
-		catch (Exception e)
+		return true;
+	}
+	
+	private void waitForRoom(int maxInFlight)
+	{
+		try
 		{
-			e.printStackTrace();	
+			windowLock.lock();
+			while (inFlight.size() >= maxInFlight){
+				windowRetired.awaitUninterruptibly();
+			}
 		}
 		finally
 		{
+			windowLock.unlock();
 		}
-		
 	}
 	
 	private void transactionReceivedSignal()
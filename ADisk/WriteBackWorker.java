@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+
+/*
+ * WriteBackWorker.java
+ *
+ * Writes one partition of the sectors of each writeback
+ * window to their home locations. The WriteBackThread
+ * always gives a sector to the same worker, and a worker
+ * does its parts in window order, so the last-committed
+ * write of a sector is still the last one on disk.
+ *
+ * You must follow the coding standards distributed
+ * on the class web page.
+ *
+ */
+public class WriteBackWorker extends Thread{
+
+	private static class Part{
+		WriteBackThread.Window window;
+		TreeMap<Integer, byte[]> sectors;
+
+		Part(WriteBackThread.Window window, TreeMap<Integer, byte[]> sectors){
+			this.window = window;
+			this.sectors = sectors;
+		}
+	}
+
+	private ADisk ad;
+	private WriteBackThread wbThread;
+	private SimpleLock lock;
+	private Condition partQueued;
+	private LinkedList<Part> parts;
+
+	public WriteBackWorker(ADisk adisk, WriteBackThread wbThread) {
+		this.ad = adisk;
+		this.wbThread = wbThread;
+		lock = new SimpleLock();
+		partQueued = lock.newCondition();
+		parts = new LinkedList<Part>();
+	}
+
+	//
+	// Queue the final versions of this worker's sectors
+	// in window
+	//
+	public void addPart(WriteBackThread.Window window, TreeMap<Integer, byte[]> sectors)
+	{
+		try
+		{
+			lock.lock();
+			parts.add(new Part(window, sectors));
+			partQueued.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public void run() {
+		try
+		{
+			while(true){
+				Part p = nextPart();
+				List<CompletableFuture<DiskResult>> writes =
+					new ArrayList<CompletableFuture<DiskResult>>(p.sectors.size());
+
+				//Write the stuff to the disk, in sector order
+				for (Map.Entry<Integer, byte[]> e : p.sectors.entrySet()){
+					writes.add(ad.write(ADisk.DISK_WRITE_TAG, ad.homeSector(e.getKey()), e.getValue()));
+				}
+
+				//Now wait for all these writes to get done.
+				ADisk.waitFor(writes);
+
+				//The home sectors are current now; refresh the cache before
+				//readers stop finding them in the writebacklist
+				for (Map.Entry<Integer, byte[]> e : p.sectors.entrySet()){
+					ad.cache.update(e.getKey(), e.getValue());
+				}
+
+				wbThread.partDone(p.window);
+			}
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+			//Nothing past this part gets written back
+			ad.logStatus.writeBackFailed(e);
+		}
+	}
+
+	private Part nextPart()
+	{
+		try
+		{
+			lock.lock();
+			while(parts.isEmpty())
+			{
+				partQueued.awaitUninterruptibly();
+			}
+			return parts.poll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}